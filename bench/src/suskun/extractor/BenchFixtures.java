@@ -0,0 +1,165 @@
+package suskun.extractor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Generates inputs for benchmarks. Pages look like news pages with a head section, menus and paragraphs.
+ * Documents are generated for every source in content rules file and contain lines and urls that match the
+ * literal rules of that source, so reduction code takes its removal paths as well.
+ * <p>
+ * Rules file is read from "bench.rules" system property, default is content-rules.txt in working directory.
+ */
+class BenchFixtures {
+
+    static final int SMALL_PAGE_PARAGRAPHS = 30;
+    static final int HUGE_PAGE_PARAGRAPHS = 10_000;
+
+    private static final String[] WORDS = {
+            "bugün", "açıklama", "yapan", "başkan", "toplantıda", "konuştu", "ekonomi", "büyüme", "yüzde",
+            "ankara", "istanbul", "hükümet", "meclis", "seçim", "maç", "takım", "gol", "oyuncu", "hafta",
+            "sonra", "önce", "yeni", "büyük", "kişi", "çalışma", "proje", "şirket", "fiyat", "artış", "düşüş",
+            "öğrenci", "okul", "hastane", "doktor", "hava", "yağmur", "kar", "sıcaklık", "derece", "dolar"
+    };
+
+    private static final String[] BOILERPLATE = {
+            "Tüm hakları saklıdır",
+            "Haberin devamı için tıklayın",
+            "Bu haberi paylaşın",
+            "Son dakika haberleri",
+            "Yorum yazmak için giriş yapın",
+    };
+
+    static Path rulesPath() {
+        return Paths.get(System.getProperty("bench.rules", "content-rules.txt"));
+    }
+
+    static Map<String, ContentPatterns> contentPatterns() throws IOException {
+        return ContentPatterns.fromFile(rulesPath());
+    }
+
+    static String sentence(Random random, int wordCount) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (i == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            } else {
+                sb.append(' ');
+            }
+            sb.append(word);
+        }
+        return sb.append('.').toString();
+    }
+
+    static String page(int paragraphs, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html lang=\"tr\">\n<HEAD>\n");
+        sb.append("<meta charset=\"utf-8\">\n<title>").append(sentence(random, 6)).append("</title>\n");
+        sb.append("<script>var menu = '<div class=\"menu\">'; window.dataLayer = [];</script>\n");
+        sb.append("<link rel=\"stylesheet\" href=\"/static/site.css\">\n</head>\n<body>\n");
+        sb.append("<div class=\"header\"><ul>");
+        for (int i = 0; i < 20; i++) {
+            sb.append("<li><a href=\"/kategori/").append(i).append("\">").append(WORDS[i]).append("</a></li>");
+        }
+        sb.append("</ul></div>\n<div class=\"article\">\n<h1>").append(sentence(random, 8)).append("</h1>\n");
+        for (int i = 0; i < paragraphs; i++) {
+            sb.append("<p>").append(sentence(random, 10 + random.nextInt(30)));
+            if (i % 3 == 0) {
+                sb.append(" ").append(random.nextInt(1000)).append(" &quot;kişi&quot;");
+            }
+            sb.append("</p>\n");
+            if (i % 50 == 49) {
+                sb.append("<div class=\"ad\"><a href=\"/reklam/").append(i).append("\">Reklam</a></div>\n");
+            }
+        }
+        sb.append("</div>\n<div class=\"footer\">").append(BOILERPLATE[0]).append("</div>\n</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Returns the patterns that are plain strings, without escapes.
+     */
+    private static List<String> literals(Iterable<Pattern> patterns) {
+        List<String> result = new ArrayList<>();
+        for (Pattern pattern : patterns) {
+            String literal = MultiPatternMatcher.toLiteral(pattern.pattern());
+            if (literal != null && literal.length() > 0) {
+                result.add(literal);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates documents for all sources of the content rules, documentsPerSource for each.
+     */
+    static List<WebDocument> documents(Map<String, ContentPatterns> patternsMap, int documentsPerSource, long seed) {
+        Random random = new Random(seed);
+        List<WebDocument> documents = new ArrayList<>();
+        // fromFile adds sources with and without "www." so only use the names as written in the rules file.
+        TreeSet<String> sources = new TreeSet<>();
+        for (ContentPatterns patterns : patternsMap.values()) {
+            if (!patterns.source.equals("global")) {
+                sources.add(patterns.source);
+            }
+        }
+        for (String source : sources) {
+            ContentPatterns patterns = patternsMap.get(source);
+            List<String> lineLiterals = literals(patterns.linePatterns);
+            List<String> urlLiterals = literals(patterns.urlRemovePatterns);
+            for (int i = 0; i < documentsPerSource; i++) {
+                String url = "http://" + source + "/haber/" + i;
+                if (!urlLiterals.isEmpty() && random.nextInt(20) == 0) {
+                    url = url + "/" + urlLiterals.get(random.nextInt(urlLiterals.size()));
+                }
+                int lineCount = 5 + random.nextInt(40);
+                List<String> lines = new ArrayList<>(lineCount);
+                for (int j = 0; j < lineCount; j++) {
+                    int r = random.nextInt(20);
+                    if (r == 0 && !lineLiterals.isEmpty()) {
+                        lines.add(sentence(random, 3) + " " + lineLiterals.get(random.nextInt(lineLiterals.size())));
+                    } else if (r == 1) {
+                        lines.add(BOILERPLATE[random.nextInt(BOILERPLATE.length)]);
+                    } else if (r == 2) {
+                        lines.add(random.nextInt(100) + "." + random.nextInt(100) + " 2017 " + random.nextInt());
+                    } else if (r == 3) {
+                        lines.add(sentence(random, 5) + " &amp; <b>" + sentence(random, 4) + "</b>");
+                    } else {
+                        lines.add(sentence(random, 5 + random.nextInt(25)));
+                    }
+                }
+                documents.add(new WebDocument(source, url, sentence(random, 6), lines, url,
+                        "2017-02-01", "", ""));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Writes documents in extractor output format to a temporary file that is deleted on exit.
+     */
+    static Path writeCorpus(List<WebDocument> documents) throws IOException {
+        Path file = Files.createTempFile("bench-corpus", ".txt");
+        file.toFile().deleteOnExit();
+        WebCorpus corpus = new WebCorpus("bench", "bench", documents);
+        corpus.save(file, false);
+        return file;
+    }
+
+    static List<String> lines(List<WebDocument> documents) {
+        List<String> lines = new ArrayList<>();
+        for (WebDocument document : documents) {
+            lines.addAll(document.lines);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,63 @@
+package suskun.extractor;
+
+import com.kohlschutter.boilerpipe.BoilerpipeProcessingException;
+import com.kohlschutter.boilerpipe.extractors.ArticleExtractor;
+import com.kohlschutter.boilerpipe.sax.BoilerpipeHTMLParser;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.InputSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the boilerpipe call of extractor tasks for a small and a huge page. articleExtractor uses a page
+ * that is normalized before the benchmark. Others start from raw page bytes, once through a normalized String
+ * and once through the normalizing reader. pooledByteInput is what the extractor does, it reuses the parser of
+ * the thread. parserSetup is the cost pooling removes from every page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class BoilerpipeBenchmark {
+
+    @Param({"small", "huge"})
+    String pageSize;
+
+    String page;
+    byte[] bytes;
+
+    @Setup
+    public void setup() {
+        int paragraphs = pageSize.equals("huge") ?
+                BenchFixtures.HUGE_PAGE_PARAGRAPHS : BenchFixtures.SMALL_PAGE_PARAGRAPHS;
+        String raw = BenchFixtures.page(paragraphs, 1);
+        page = HtmlNormalizer.DEFAULT.normalize(raw);
+        bytes = raw.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String articleExtractor() throws BoilerpipeProcessingException {
+        return ArticleExtractor.INSTANCE.getText(page);
+    }
+
+    @Benchmark
+    public String stringInput() throws BoilerpipeProcessingException {
+        String text = HtmlNormalizer.DEFAULT.normalize(new String(bytes, StandardCharsets.UTF_8));
+        return ArticleExtractor.INSTANCE.getText(text);
+    }
+
+    @Benchmark
+    public String byteInput() throws BoilerpipeProcessingException {
+        return ArticleExtractor.INSTANCE.getText(new InputSource(HtmlNormalizer.DEFAULT.reader(bytes)));
+    }
+
+    @Benchmark
+    public String pooledByteInput() throws BoilerpipeProcessingException {
+        return PooledBoilerpipe.ARTICLE.getText(HtmlNormalizer.DEFAULT.reader(bytes));
+    }
+
+    @Benchmark
+    public BoilerpipeHTMLParser parserSetup() {
+        return new BoilerpipeHTMLParser();
+    }
+}
@@ -0,0 +1,43 @@
+package suskun.extractor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks ContentPatterns.reduce for documents generated from all sources of the content rules.
+ * Each operation reduces a single document, with duplicate line removal as Reducer does, or without it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ContentPatternsBenchmark {
+
+    @Param({"true", "false"})
+    boolean removeDuplicates;
+
+    Map<String, ContentPatterns> patternsMap;
+    List<WebDocument> documents;
+    ContentPatterns[] documentPatterns;
+    int index;
+
+    @Setup
+    public void setup() throws IOException {
+        patternsMap = BenchFixtures.contentPatterns();
+        documents = BenchFixtures.documents(patternsMap, 20, 1);
+        documentPatterns = new ContentPatterns[documents.size()];
+        for (int i = 0; i < documents.size(); i++) {
+            documentPatterns[i] = patternsMap.get(documents.get(i).source);
+        }
+    }
+
+    @Benchmark
+    public WebDocument reduce() {
+        int i = index;
+        index = i + 1 == documentPatterns.length ? 0 : i + 1;
+        return documentPatterns[i].reduce(documents.get(i), removeDuplicates);
+    }
+}
@@ -0,0 +1,49 @@
+package suskun.extractor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks line normalization and hashing of DuplicateLineRemover. Each operation processes a single line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class DuplicateLineRemoverBenchmark {
+
+    DuplicateLineRemover remover;
+    String[] lines;
+    String[] processedLines;
+    int index;
+
+    @Setup
+    public void setup() throws IOException {
+        remover = new DuplicateLineRemover(BenchFixtures.rulesPath());
+        List<String> all = BenchFixtures.lines(
+                BenchFixtures.documents(BenchFixtures.contentPatterns(), 20, 1));
+        lines = all.toArray(new String[0]);
+        processedLines = new String[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            processedLines[i] = remover.process(lines[i]);
+        }
+    }
+
+    private int next() {
+        int i = index;
+        index = i + 1 == lines.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public String process() {
+        return remover.process(lines[next()]);
+    }
+
+    @Benchmark
+    public long hash1() {
+        return remover.hash1(processedLines[next()]);
+    }
+}
@@ -0,0 +1,38 @@
+package suskun.extractor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks HtmlNormalizer against the regular expression chain it replaces for a small and a huge page.
+ * HtmlNormalizerCheck verifies that outputs are the same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class HtmlNormalizerBenchmark {
+
+    @Param({"small", "huge"})
+    String pageSize;
+
+    String page;
+
+    @Setup
+    public void setup() {
+        int paragraphs = pageSize.equals("huge") ?
+                BenchFixtures.HUGE_PAGE_PARAGRAPHS : BenchFixtures.SMALL_PAGE_PARAGRAPHS;
+        // some spaces are non breaking, as in crawled pages.
+        page = BenchFixtures.page(paragraphs, 1).replace(" kişi", "\u00a0kişi");
+    }
+
+    @Benchmark
+    public String regexChain() {
+        return HtmlNormalizerCheck.regexChain(page);
+    }
+
+    @Benchmark
+    public String normalizer() {
+        return HtmlNormalizer.DEFAULT.normalize(page);
+    }
+}
@@ -0,0 +1,48 @@
+package suskun.extractor;
+
+import org.openjdk.jmh.annotations.*;
+import zemberek.core.text.TextUtil;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks LineNormalizer.cleanAndSeparate against the TextUtil chain it replaces. Each operation normalizes
+ * a single line. Lines are read from the corpus file given with "bench.corpus" system property, otherwise lines
+ * of generated documents are used. LineNormalizerCheck verifies that outputs are the same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class LineNormalizerBenchmark {
+
+    String[] lines;
+    int index;
+
+    @Setup
+    public void setup() throws IOException {
+        String corpus = System.getProperty("bench.corpus");
+        List<WebDocument> documents = corpus == null ?
+                BenchFixtures.documents(BenchFixtures.contentPatterns(), 20, 1) :
+                WebCorpus.loadDocuments(Paths.get(corpus));
+        lines = BenchFixtures.lines(documents).toArray(new String[0]);
+    }
+
+    private String nextLine() {
+        int i = index;
+        index = i + 1 == lines.length ? 0 : i + 1;
+        return lines[i];
+    }
+
+    @Benchmark
+    public String textUtilChain() {
+        return TextUtil.separatePunctuationConnectedWords(ContentPatterns.cleanAndNormalize(nextLine()), 3);
+    }
+
+    @Benchmark
+    public String normalizer() {
+        return LineNormalizer.cleanAndSeparate(nextLine());
+    }
+}
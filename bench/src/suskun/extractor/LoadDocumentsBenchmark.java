@@ -0,0 +1,34 @@
+package suskun.extractor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks WebCorpus.loadDocuments. Each operation loads the whole generated corpus file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class LoadDocumentsBenchmark {
+
+    @Param({"100"})
+    int documentsPerSource;
+
+    Path corpusFile;
+
+    @Setup
+    public void setup() throws IOException {
+        List<WebDocument> documents = BenchFixtures.documents(
+                BenchFixtures.contentPatterns(), documentsPerSource, 1);
+        corpusFile = BenchFixtures.writeCorpus(documents);
+    }
+
+    @Benchmark
+    public List<WebDocument> loadDocuments() throws IOException {
+        return WebCorpus.loadDocuments(corpusFile);
+    }
+}
@@ -0,0 +1,154 @@
+package suskun.extractor;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton for finding multiple literal strings in a text with a single scan.
+ */
+class AhoCorasick {
+
+    private final String[] keys;
+    // sorted transition chars and target states of each state.
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // index of the longest key ending at this state, -1 if none.
+    private final int[] keyIndex;
+    // closest state in the fail chain (including itself) where a key ends, -1 if none.
+    private final int[] output;
+
+    AhoCorasick(Collection<String> keyCollection) {
+        this.keys = keyCollection.toArray(new String[0]);
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(-1);
+        for (int k = 0; k < keys.length; k++) {
+            String key = keys[k];
+            if (key.isEmpty()) {
+                throw new IllegalArgumentException("Empty keys are not allowed.");
+            }
+            int state = 0;
+            for (int i = 0; i < key.length(); i++) {
+                Integer next = trie.get(state).get(key.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(-1);
+                    trie.get(state).put(key.charAt(i), next);
+                }
+                state = next;
+            }
+            if (ends.get(state) == -1) {
+                ends.set(state, k);
+            }
+        }
+
+        int n = trie.size();
+        edgeChars = new char[n][];
+        edgeTargets = new int[n][];
+        keyIndex = new int[n];
+        for (int s = 0; s < n; s++) {
+            TreeMap<Character, Integer> edges = trie.get(s);
+            edgeChars[s] = new char[edges.size()];
+            edgeTargets[s] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                edgeChars[s][i] = e.getKey();
+                edgeTargets[s][i] = e.getValue();
+                i++;
+            }
+            keyIndex[s] = ends.get(s);
+        }
+
+        // breadth first fail link generation.
+        fail = new int[n];
+        output = new int[n];
+        output[0] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int t : edgeTargets[0]) {
+            fail[t] = 0;
+            output[t] = keyIndex[t] >= 0 ? t : -1;
+            queue.add(t);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < edgeChars[s].length; i++) {
+                char c = edgeChars[s][i];
+                int t = edgeTargets[s][i];
+                int f = fail[s];
+                while (f != 0 && target(f, c) < 0) {
+                    f = fail[f];
+                }
+                int ft = target(f, c);
+                fail[t] = ft < 0 ? 0 : ft;
+                output[t] = keyIndex[t] >= 0 ? t : output[fail[t]];
+                queue.add(t);
+            }
+        }
+    }
+
+    private int target(int state, char c) {
+        int i = Arrays.binarySearch(edgeChars[state], c);
+        return i < 0 ? -1 : edgeTargets[state][i];
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int t = target(state, c);
+            if (t >= 0) {
+                return t;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns true if any of the keys occurs in the input.
+     */
+    boolean containsAny(CharSequence input) {
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            state = next(state, input.charAt(i));
+            if (output[state] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns start index of the first occurrence of each key in the input, -1 if a key does not occur.
+     * If there are duplicate keys, only the first one gets an index.
+     */
+    int[] firstOccurrences(CharSequence input) {
+        int[] result = new int[keys.length];
+        Arrays.fill(result, -1);
+        int remaining = 0;
+        for (int s = 0; s < keyIndex.length; s++) {
+            if (keyIndex[s] >= 0) {
+                remaining++;
+            }
+        }
+        int state = 0;
+        for (int i = 0; i < input.length() && remaining > 0; i++) {
+            state = next(state, input.charAt(i));
+            for (int s = output[state]; s > 0; s = output[fail[s]]) {
+                int k = keyIndex[s];
+                if (result[k] < 0) {
+                    result[k] = i - keys[k].length() + 1;
+                    remaining--;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+package suskun.extractor;
+
+import com.google.common.base.Stopwatch;
+import zemberek.core.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads blocks of crawl pages with its own I/O threads, so that a block can be read while the previous one is
+ * processed by extractor threads. Loaded blocks hold a share of a byte budget until they are released.
+ * When the budget is used up, reads wait until processed blocks are released.
+ */
+class BlockLoader implements Closeable {
+
+    // budget is kept in kilobytes because semaphore permits are integers.
+    private static final int PERMIT_BYTES = 1024;
+
+    private final ExecutorService ioPool;
+    private final Semaphore budget;
+    private final int maxPermits;
+    final long maxBlockBytes;
+
+    /**
+     * @param ioThreadCount thread count for reading pages.
+     * @param maxBytes      maximum total size of pages that are loaded and not yet released.
+     * @param maxBlockBytes blocks are not larger than this, unless they have a single page.
+     */
+    BlockLoader(int ioThreadCount, long maxBytes, long maxBlockBytes) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.ioPool = Executors.newFixedThreadPool(ioThreadCount, r -> {
+            Thread t = new Thread(r, "extractor-io-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / PERMIT_BYTES));
+        this.budget = new Semaphore(maxPermits, true);
+        this.maxBlockBytes = maxBlockBytes;
+    }
+
+    static class Block {
+        final List<CrawlDay.Page> pages;
+        List<Extractor.FileContent> contents;
+        private int permits;
+
+        Block(List<CrawlDay.Page> pages) {
+            this.pages = pages;
+        }
+
+        int size() {
+            return pages.size();
+        }
+    }
+
+    /**
+     * Splits pages into blocks of at most maxPages pages and maxBlockBytes bytes.
+     */
+    List<List<CrawlDay.Page>> partition(List<CrawlDay.Page> pages, int maxPages) {
+        List<List<CrawlDay.Page>> blocks = new ArrayList<>();
+        List<CrawlDay.Page> block = new ArrayList<>();
+        long blockBytes = 0;
+        for (CrawlDay.Page page : pages) {
+            if (!block.isEmpty() && (block.size() == maxPages || blockBytes + page.size > maxBlockBytes)) {
+                blocks.add(block);
+                block = new ArrayList<>();
+                blockBytes = 0;
+            }
+            block.add(page);
+            blockBytes += page.size;
+        }
+        if (!block.isEmpty()) {
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads pages of the day asynchronously. Pages that cannot be read are skipped.
+     * Returned block must be released after its content is no longer needed.
+     */
+    CompletableFuture<Block> load(CrawlDay day, List<CrawlDay.Page> pages) {
+        return CompletableFuture.supplyAsync(() -> {
+            Block block = new Block(pages);
+            long bytes = 0;
+            for (CrawlDay.Page page : pages) {
+                bytes += page.size;
+            }
+            // a block larger than the whole budget would wait forever.
+            block.permits = (int) Math.min(maxPermits, bytes / PERMIT_BYTES + 1);
+            budget.acquireUninterruptibly(block.permits);
+
+            Stopwatch sw = Stopwatch.createStarted();
+            List<Extractor.FileContent> contents = new ArrayList<>(pages.size());
+            try {
+                for (CrawlDay.Page page : pages) {
+                    try {
+                        long start = System.nanoTime();
+                        byte[] content = day.read(page);
+                        Metrics.READ.record(day.source, System.nanoTime() - start);
+                        Metrics.BYTES.add(day.source, content.length);
+                        contents.add(new Extractor.FileContent(page, content));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } catch (RuntimeException e) {
+                release(block);
+                throw e;
+            }
+            block.contents = contents;
+            Log.info("Loaded %d from %s in %.1f seconds. (ThreadID=%d)",
+                    pages.size(),
+                    day,
+                    sw.elapsed(TimeUnit.MILLISECONDS) / 1000f,
+                    Thread.currentThread().getId());
+            return block;
+        }, ioPool);
+    }
+
+    void release(Block block) {
+        block.contents = null;
+        budget.release(block.permits);
+        block.permits = 0;
+    }
+
+    @Override
+    public void close() {
+        ioPool.shutdown();
+    }
+}
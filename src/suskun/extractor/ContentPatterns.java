@@ -1,6 +1,5 @@
 package suskun.extractor;
 
-import com.google.common.base.Splitter;
 import zemberek.core.io.Strings;
 import zemberek.core.text.Regexps;
 import zemberek.core.text.TextConsumer;
@@ -11,6 +10,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -27,9 +27,22 @@ public class ContentPatterns {
     Set<Pattern> wordPattern = new LinkedHashSet<>();
     String extractor;
 
-    Map<Pattern, String> replacePatterns = new HashMap<>();
+    Map<Pattern, String> replacePatterns = new LinkedHashMap<>();
     Map<String, String> replaceWords = new HashMap<>();
 
+    // compiled forms of url patterns. Generated when first needed.
+    private volatile MultiPatternMatcher urlRemoveMatcher;
+    private volatile MultiPatternMatcher urlAcceptMatcher;
+    private volatile MultiPatternMatcher lineMatcher;
+    private volatile ReplaceRules replaceRules;
+    // reduceLines results of all sources, null if caching is disabled. Keys contain the rule set id, so memory is
+    // bounded by LineCache.SIZE however many sources there are.
+    private static final LineCache<RuleLine, ReducedLine> REDUCED_LINES =
+            LineCache.SIZE == 0 ? null : new LineCache<>("reduce-lines", LineCache.SIZE);
+    private static final AtomicInteger RULE_SET_IDS = new AtomicInteger();
+    // identifies the current rules in REDUCED_LINES keys, changes when rules are merged.
+    private volatile int ruleSetId = RULE_SET_IDS.incrementAndGet();
+
     static ContentPatterns fromList(String source, List<String> rules) {
         ContentPatterns patterns = new ContentPatterns();
         patterns.source = source;
@@ -118,7 +131,77 @@ public class ContentPatterns {
         if (patterns.labelPattern != null) {
             this.labelPattern = patterns.labelPattern;
         }
+        this.urlRemoveMatcher = null;
+        this.urlAcceptMatcher = null;
+        this.lineMatcher = null;
+        this.replaceRules = null;
+        this.ruleSetId = RULE_SET_IDS.incrementAndGet();
+    }
+
+    /**
+     * Makes rules unmodifiable and compiles matchers, so that this instance can be shared by threads.
+     * merge(..) cannot be called after this.
+     */
+    void freeze() {
+        linePatterns = Collections.unmodifiableSet(linePatterns);
+        pagePatterns = Collections.unmodifiableSet(pagePatterns);
+        urlRemovePatterns = Collections.unmodifiableSet(urlRemovePatterns);
+        urlAcceptPatterns = Collections.unmodifiableSet(urlAcceptPatterns);
+        wordPattern = Collections.unmodifiableSet(wordPattern);
+        replacePatterns = Collections.unmodifiableMap(replacePatterns);
+        replaceWords = Collections.unmodifiableMap(replaceWords);
+        lineMatcher();
+        urlRemoveMatcher();
+        urlAcceptMatcher();
+        replaceRules();
+        if (RuleProfiler.ENABLED) {
+            RuleProfiler.register("L", linePatterns);
+            RuleProfiler.register("P", pagePatterns);
+            RuleProfiler.register("I-", urlRemovePatterns);
+            RuleProfiler.register("I+", urlAcceptPatterns);
+            RuleProfiler.register("W", wordPattern);
+        }
+    }
 
+    // null if caching is disabled. Rule profiling needs every line to be evaluated, so it disables the cache.
+    private static LineCache<RuleLine, ReducedLine> lineCache() {
+        return RuleProfiler.ENABLED ? null : REDUCED_LINES;
+    }
+
+    ReplaceRules replaceRules() {
+        ReplaceRules rules = replaceRules;
+        if (rules == null) {
+            rules = new ReplaceRules(replaceWords, replacePatterns);
+            replaceRules = rules;
+        }
+        return rules;
+    }
+
+    MultiPatternMatcher lineMatcher() {
+        MultiPatternMatcher matcher = lineMatcher;
+        if (matcher == null) {
+            matcher = new MultiPatternMatcher(linePatterns, false);
+            lineMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    MultiPatternMatcher urlRemoveMatcher() {
+        MultiPatternMatcher matcher = urlRemoveMatcher;
+        if (matcher == null) {
+            matcher = new MultiPatternMatcher(urlRemovePatterns);
+            urlRemoveMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    MultiPatternMatcher urlAcceptMatcher() {
+        MultiPatternMatcher matcher = urlAcceptMatcher;
+        if (matcher == null) {
+            matcher = new MultiPatternMatcher(urlAcceptPatterns);
+            urlAcceptMatcher = matcher;
+        }
+        return matcher;
     }
 
 
@@ -145,47 +228,47 @@ public class ContentPatterns {
             return result;
         }
 
-        result.keySet().forEach(s -> result.get(s).merge(global));
+        // sources are stored with and without "www." prefix, merge global rules only once into each.
+        Set<ContentPatterns> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ContentPatterns patterns : result.values()) {
+            if (patterns != global && merged.add(patterns)) {
+                patterns.merge(global);
+            }
+        }
 
         return result;
     }
 
     // todo: add accept pattern check.
     public boolean isUrlAccepted(String url) {
-        boolean accepted = true;
-        for (Pattern p : getUrlRemovePatterns()) {
-            if (Regexps.matchesAny(p, url)) {
-                accepted = false;
-                break;
-            }
+        return !isUrlRemoved(url);
+    }
+
+    private boolean isUrlRemoved(String url) {
+        if (RuleProfiler.ENABLED) {
+            return RuleProfiler.findAny("I-", urlRemovePatterns, url);
         }
-        return accepted;
+        return urlRemoveMatcher().matchesAny(url);
+    }
+
+    private boolean isLineRemoved(MultiPatternMatcher lineMatcher, String line) {
+        if (RuleProfiler.ENABLED) {
+            return RuleProfiler.findAny("L", linePatterns, line);
+        }
+        return lineMatcher.matchesAny(line);
     }
 
     public void applyReplacePatterns(WebDocument page) {
         if (page.lines.size() == 0) {
             return;
         }
-        if (replaceWords.size() == 0 && replacePatterns.size() == 0) {
+        ReplaceRules rules = replaceRules();
+        if (rules.isEmpty()) {
             return;
         }
         List<String> lines = new ArrayList<>(page.getLines().size());
         for (String line : page.lines) {
-            String content = line.replaceAll("\\s|\u00A0", " ");
-            for (String key : replaceWords.keySet()) {
-                content = content.replaceAll(key, replaceWords.get(key)).trim();
-            }
-            for (Pattern pattern : replacePatterns.keySet()) {
-                String s = replacePatterns.get(pattern);
-                content = pattern.matcher(content).reset().replaceAll(s);
-                // TODO: a hack.
-                content = content.replaceAll("%n", "\n");
-            }
-            if (content.contains("\n")) {
-                lines.addAll(Splitter.on("\n").omitEmptyStrings().trimResults().splitToList(content));
-            } else {
-                lines.add(content);
-            }
+            lines.addAll(rules.apply(line));
         }
         page.setContent(lines);
     }
@@ -195,25 +278,23 @@ public class ContentPatterns {
             boolean removeDuplicates) {
 
         if (urlAcceptPatterns.size() > 0) {
-            boolean accepted = false;
-            for (Pattern urlAcceptPattern : urlAcceptPatterns) {
-                if (Regexps.matchesAny(urlAcceptPattern, page.id)) {
-                    accepted = true;
-                }
-            }
+            boolean accepted = RuleProfiler.ENABLED ?
+                    RuleProfiler.findAny("I+", urlAcceptPatterns, page.id) :
+                    urlAcceptMatcher().matchesAny(page.id);
             if (!accepted)
                 return page.emptyContent();
         }
 
-        for (Pattern urlPattern : urlRemovePatterns) {
-            if (Regexps.matchesAny(urlPattern, page.id)) {
-                return page.emptyContent();
-            }
+        if (isUrlRemoved(page.id)) {
+            return page.emptyContent();
         }
 
 
         for (Pattern pagePattern : pagePatterns) {
-            if (Regexps.matchesAny(pagePattern, page.getContentAsString())) {
+            boolean matches = RuleProfiler.ENABLED ?
+                    RuleProfiler.find("P", pagePattern, page.getContentAsString()) :
+                    Regexps.matchesAny(pagePattern, page.getContentAsString());
+            if (matches) {
                 return page.emptyContent();
             }
         }
@@ -224,37 +305,40 @@ public class ContentPatterns {
 
 
     private Collection<String> reduceLinesNoUnique(WebDocument page) {
-        List<String> reduced = new ArrayList<>(page.lines);
-        List<String> next = new ArrayList<>(reduced);
-        for (Pattern linePattern : linePatterns) {
-            for (String s : reduced) {
-                if (!Regexps.matchesAny(linePattern, s)) {
-                    next.add(s);
-                }
-            }
-            reduced = new ArrayList<>(next);
-        }
-
-        // clean, normalize and separate some connected words. replace word patter matches with space.
-        next = new ArrayList<>();
-        for (String s : reduced) {
-            String cleanAndNormalized = cleanAndNormalize(s);
-            for (Pattern pattern : wordPattern) {
-                cleanAndNormalized = pattern.matcher(cleanAndNormalized).replaceAll(" ");
+        MultiPatternMatcher lineMatcher = lineMatcher();
+        List<String> result = new ArrayList<>(page.lines.size());
+        for (String line : page.lines) {
+            if (isLineRemoved(lineMatcher, line)) {
+                continue;
             }
-            next.add(TextUtil.separatePunctuationConnectedWords(cleanAndNormalized, 3));
-        }
-        reduced = new ArrayList<>(next);
-        List<String> result = new ArrayList<>();
-
-        for (String s : reduced) {
-            if (digitRatio(s) <= 0.2 /*&& capitalRatio(s) <= 0.3 && !(s.length() > 20 && badlyTypedTurkish(s))*/) {
+            String s = cleanLine(line, false);
+            if (LineFeatures.scan(s).digitRatio() <= 0.2 /*&& capitalRatio(s) <= 0.3 && !(s.length() > 20 && badlyTypedTurkish(s))*/) {
                 result.add(s);
             }
         }
         return result;
     }
 
+    // clean, normalize and separate some connected words. replace word patter matches with space.
+    // LineNormalizer gives the same result as cleanAndNormalize and separatePunctuationConnectedWords.
+    private String cleanLine(String line, boolean applyReplaceWords) {
+        boolean replaceWords = applyReplaceWords && !this.replaceWords.isEmpty();
+        if (!replaceWords && wordPattern.isEmpty()) {
+            return LineNormalizer.cleanAndSeparate(line);
+        }
+        String cleanAndNormalized = LineNormalizer.clean(line);
+        if (replaceWords) {
+            cleanAndNormalized = replaceRules().replaceWords(cleanAndNormalized, false);
+        }
+        for (Pattern pattern : wordPattern) {
+            cleanAndNormalized = RuleProfiler.ENABLED ?
+                    RuleProfiler.replaceAll("W", pattern, cleanAndNormalized, " ") :
+                    pattern.matcher(cleanAndNormalized).replaceAll(" ");
+        }
+        //TODO: not sure about this.
+        return LineNormalizer.separate(cleanAndNormalized);
+    }
+
     public static String cleanAndNormalize(String input) {
         return TextUtil.cleanAllHtmlRelated(
                 TextUtil.normalizeQuotesHyphens(
@@ -271,80 +355,112 @@ public class ContentPatterns {
         int badlyTypedTurkish = 0;
     }
 
-    private ReducedResult reduceLines(WebDocument page) {
+    // reason of removing a line in reduceLines.
+    enum Removal {
+        NONE, LINE_PATTERN, DIGIT, CAPITAL, BADLY_TYPED_TURKISH, REPETITION
+    }
 
-        ReducedResult result = new ReducedResult();
+    // cleaned form of a line and whether it is removed. Only depends on the line and the rules.
+    static class ReducedLine {
+        final String text;
+        final Removal removal;
 
-        LinkedHashSet<String> reduced = new LinkedHashSet<>(page.lines);
-        LinkedHashSet<String> next = new LinkedHashSet<>(reduced);
-        for (Pattern linePattern : linePatterns) {
-            for (String s : reduced) {
-                if (Regexps.matchesAny(linePattern, s)) {
-                    next.remove(s);
-                }
-            }
-            reduced = new LinkedHashSet<>(next);
+        ReducedLine(String text, Removal removal) {
+            this.text = text;
+            this.removal = removal;
         }
+    }
 
-        // clean, normalize and separate some connected words. replace word patter matches with space.
-        next = new LinkedHashSet<>();
-        for (String s : reduced) {
-            String cleanAndNormalized = cleanAndNormalize(s);
-            for (String key : replaceWords.keySet()) {
-                cleanAndNormalized = cleanAndNormalized.replaceAll(key, replaceWords.get(key));
-            }
-            for (Pattern pattern : wordPattern) {
-                cleanAndNormalized = pattern.matcher(cleanAndNormalized).replaceAll(" ");
+    // key of a line in REDUCED_LINES, result of a line depends on the rules too.
+    private static class RuleLine {
+        final int ruleSetId;
+        final String line;
+
+        RuleLine(int ruleSetId, String line) {
+            this.ruleSetId = ruleSetId;
+            this.line = line;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RuleLine)) {
+                return false;
             }
-            //TODO: not sure about this.
-            next.add(TextUtil.separatePunctuationConnectedWords(cleanAndNormalized, 3));
+            RuleLine other = (RuleLine) o;
+            return ruleSetId == other.ruleSetId && line.equals(other.line);
         }
-        reduced = new LinkedHashSet<>(next);
 
+        @Override
+        public int hashCode() {
+            return 31 * line.hashCode() + ruleSetId;
+        }
+    }
 
-        for (String s : reduced) {
-            if (digitRatio(s) > 0.2) {
-                next.remove(s);
-                result.digitRemovedCount++;
-            }
+    private ReducedLine reduceLine(String line) {
+        if (isLineRemoved(lineMatcher(), line)) {
+            return new ReducedLine(null, Removal.LINE_PATTERN);
+        }
+        String s = cleanLine(line, true);
+        LineFeatures features = LineFeatures.scan(s);
+        Removal removal;
+        if (features.digitRatio() > 0.2) {
+            removal = Removal.DIGIT;
+        } else if (features.capitalRatio() > 0.3) {
+            removal = Removal.CAPITAL;
+        } else if (s.length() > 20 && features.badlyTypedTurkish()) {
+            removal = Removal.BADLY_TYPED_TURKISH;
+        } else if (s.length() > LineFeatures.MIN_REPETITION_CHECK_LENGTH && features.repetitionRatio() < 0.7) {
+            removal = Removal.REPETITION;
+        } else {
+            removal = Removal.NONE;
         }
+        return new ReducedLine(s, removal);
+    }
 
-        reduced = new LinkedHashSet<>(next);
+    // Every line is visited once. Lines are removed by the first matching filter in this order: line patterns,
+    // digit, capital, badly typed Turkish and repetition. Counters count distinct lines after cleaning.
+    private ReducedResult reduceLines(WebDocument page) {
 
+        ReducedResult result = new ReducedResult();
+        LineCache<RuleLine, ReducedLine> cache = lineCache();
+        int ruleSet = ruleSetId;
 
-        for (String s : reduced) {
-            if (capitalRatio(s) > 0.3) {
-                next.remove(s);
-                result.capitalRemoveCount++;
-            }
-        }
-        reduced = new LinkedHashSet<>(next);
+        Set<String> seenLines = new HashSet<>(page.lines.size() * 2);
+        Set<String> seenCleaned = new HashSet<>(page.lines.size() * 2);
+        LinkedHashSet<String> reduced = new LinkedHashSet<>();
 
-        for (String s : reduced) {
-            if (s.length() > 20 && badlyTypedTurkish(s)) {
-                next.remove(s);
-                result.badlyTypedTurkish++;
+        for (String line : page.lines) {
+            if (!seenLines.add(line)) {
+                continue;
             }
-        }
-        reduced = new LinkedHashSet<>(next);
-
-        for (String s : reduced) {
-            if (s.length() > 50 && repetitionRation(s) < 0.7) {
-                next.remove(s);
-                result.repetitionCount++;
+            ReducedLine reducedLine = cache == null ? reduceLine(line) :
+                    cache.get(new RuleLine(ruleSet, line), key -> reduceLine(key.line));
+            // different lines may become the same after cleaning.
+            if (reducedLine.removal == Removal.LINE_PATTERN || !seenCleaned.add(reducedLine.text)) {
+                continue;
+            }
+            switch (reducedLine.removal) {
+                case DIGIT:
+                    result.digitRemovedCount++;
+                    break;
+                case CAPITAL:
+                    result.capitalRemoveCount++;
+                    break;
+                case BADLY_TYPED_TURKISH:
+                    result.badlyTypedTurkish++;
+                    break;
+                case REPETITION:
+                    result.repetitionCount++;
+                    break;
+                default:
+                    reduced.add(reducedLine.text);
             }
         }
 
-        result.result = next;
+        result.result = reduced;
         return result;
     }
 
-    private float repetitionRation(String s) {
-        List<String> l = Splitter.on(" ").splitToList(s);
-        LinkedHashSet<String> set = new LinkedHashSet<>(l);
-        return (set.size() * 1f) / l.size();
-    }
-
 
     public static double digitRatio(String s) {
         if (s.trim().length() == 0)
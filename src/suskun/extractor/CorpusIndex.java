@@ -0,0 +1,319 @@
+package suskun.extractor;
+
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sidecar index of a corpus file for reading documents by id without loading the file. Index is kept in the
+ * hidden work directory next to the corpus file as [work dir]/[corpus file name].idx and it is built again when
+ * the size or modification time of the corpus file changes.
+ * <p>
+ * Both files are memory mapped. A document is found with a binary search over hashes of ids, then only its bytes
+ * are read and parsed. If there are documents with the same id, the last one is returned as WebCorpus does.
+ * <p>
+ * Index format: magic(int) version(int) corpusSize(long) corpusLastModified(long) count(int) then for each
+ * document, sorted by id hash and offset: idHash(long) offset(long) length(int)
+ */
+public class CorpusIndex {
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x43495831;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final int ENTRY_SIZE = 8 + 8 + 4;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private static final byte[] DOC_START = "<doc id=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DOC_PREFIX = "<doc".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DOC_END = "</doc>".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path corpusFile;
+    private final MappedByteBuffer index;
+    private final int count;
+    private final MappedByteBuffer[] segments;
+
+    private CorpusIndex(Path corpusFile, MappedByteBuffer index, MappedByteBuffer[] segments) {
+        this.corpusFile = corpusFile;
+        this.index = index;
+        this.count = index.getInt(HEADER_SIZE - 4);
+        this.segments = segments;
+    }
+
+    static Path indexFile(Path corpusFile) {
+        return corpusFile.resolveSibling(Extractor.WORK_DIR).resolve(corpusFile.toFile().getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Opens the index of the corpus file. Index is built first if it does not exist or it is stale.
+     */
+    public static CorpusIndex open(Path corpusFile) throws IOException {
+        Path indexFile = indexFile(corpusFile);
+        MappedByteBuffer index = isCurrent(indexFile, corpusFile) ? map(indexFile) : null;
+        if (index == null) {
+            build(corpusFile);
+            index = map(indexFile);
+        }
+        // mappings stay valid after channel is closed.
+        try (FileChannel channel = FileChannel.open(corpusFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            return new CorpusIndex(corpusFile, index, segments);
+        }
+    }
+
+    private static MappedByteBuffer map(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index is too large: " + indexFile);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // true if index is complete and it is built for the current size and modification time of the corpus file.
+    private static boolean isCurrent(Path indexFile, Path corpusFile) throws IOException {
+        if (Files.notExists(indexFile) || Files.size(indexFile) < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream dis = new DataInputStream(Files.newInputStream(indexFile))) {
+            return dis.readInt() == MAGIC
+                    && dis.readInt() == VERSION
+                    && dis.readLong() == Files.size(corpusFile)
+                    && dis.readLong() == Files.getLastModifiedTime(corpusFile).toMillis()
+                    && Files.size(indexFile) == HEADER_SIZE + (long) dis.readInt() * ENTRY_SIZE;
+        }
+    }
+
+    private static long hash(String id) {
+        return Hashing.murmur3_128().hashUnencodedChars(id).asLong();
+    }
+
+    private static class Entry {
+        final long hash;
+        final long offset;
+        int length;
+
+        Entry(long hash, long offset) {
+            this.hash = hash;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Scans the corpus file and writes its index. Document boundaries are the same as WebDocumentReader uses.
+     * Documents without an id are not indexed. Returns the index file.
+     */
+    public static Path build(Path corpusFile) throws IOException {
+        long size = Files.size(corpusFile);
+        long lastModified = Files.getLastModifiedTime(corpusFile).toMillis();
+        List<Entry> entries = new ArrayList<>();
+        new Scanner(entries).scan(corpusFile, size);
+        entries.sort((a, b) -> a.hash != b.hash ? Long.compare(a.hash, b.hash) : Long.compare(a.offset, b.offset));
+
+        Path indexFile = indexFile(corpusFile);
+        Files.createDirectories(indexFile.getParent());
+        Path tmp = indexFile.resolveSibling(indexFile.toFile().getName() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(size);
+            dos.writeLong(lastModified);
+            dos.writeInt(entries.size());
+            for (Entry entry : entries) {
+                dos.writeLong(entry.hash);
+                dos.writeLong(entry.offset);
+                dos.writeInt(entry.length);
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return indexFile;
+    }
+
+    // Finds document start offsets line by line. A document starts at its meta line and ends where the next
+    // document starts, lines after "</doc>" are ignored by the parser.
+    private static class Scanner {
+        final List<Entry> entries;
+        byte[] line = new byte[256];
+        int lineLength;
+        boolean inDocument;
+        boolean seenDocument;
+        Entry last;
+
+        Scanner(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        void scan(Path corpusFile, long size) throws IOException {
+            byte[] buffer = new byte[1 << 16];
+            long pos = 0;
+            long lineStart = 0;
+            boolean afterCarriageReturn = false;
+            try (InputStream is = Files.newInputStream(corpusFile)) {
+                int n;
+                while ((n = is.read(buffer)) > 0) {
+                    for (int i = 0; i < n; i++, pos++) {
+                        byte b = buffer[i];
+                        if (afterCarriageReturn) {
+                            afterCarriageReturn = false;
+                            if (b == '\n') {
+                                lineStart = pos + 1;
+                                continue;
+                            }
+                        }
+                        if (b == '\n' || b == '\r') {
+                            endLine(lineStart);
+                            lineStart = pos + 1;
+                            afterCarriageReturn = b == '\r';
+                        } else {
+                            if (lineLength == line.length) {
+                                line = Arrays.copyOf(line, line.length * 2);
+                            }
+                            line[lineLength++] = b;
+                        }
+                    }
+                }
+            }
+            if (lineStart < pos) {
+                endLine(lineStart);
+            }
+            endDocument(size);
+        }
+
+        private boolean startsWith(byte[] prefix) {
+            if (lineLength < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (line[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // same states as WebDocumentReader: first document starts with "<doc id=", after "</doc>" any line
+        // starting with "<doc" starts a document.
+        private void endLine(long lineStart) throws IOException {
+            if (inDocument) {
+                if (startsWith(DOC_END)) {
+                    inDocument = false;
+                }
+            } else if (seenDocument ? startsWith(DOC_PREFIX) : startsWith(DOC_START)) {
+                endDocument(lineStart);
+                String id = WebDocument.idOf(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+                if (id != null) {
+                    last = new Entry(hash(id), lineStart);
+                    entries.add(last);
+                }
+                inDocument = true;
+                seenDocument = true;
+            }
+            lineLength = 0;
+        }
+
+        private void endDocument(long end) throws IOException {
+            if (last != null) {
+                if (end - last.offset > Integer.MAX_VALUE) {
+                    throw new IOException("Document at " + last.offset + " is too large to index.");
+                }
+                last.length = (int) (end - last.offset);
+                last = null;
+            }
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private long entryHash(int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+    }
+
+    /**
+     * Returns the document with id, or null if corpus file has no such document.
+     */
+    public WebDocument getDocument(String id) {
+        long hash = hash(id);
+        // last entry with the hash.
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long h = entryHash(mid);
+            if (h <= hash) {
+                if (h == hash) {
+                    found = mid;
+                }
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // entries with the same hash are sorted by offset, later documents are checked first.
+        for (int i = found; i >= 0 && entryHash(i) == hash; i--) {
+            long offset = index.getLong(HEADER_SIZE + i * ENTRY_SIZE + 8);
+            int length = index.getInt(HEADER_SIZE + i * ENTRY_SIZE + 16);
+            WebDocument document = read(offset, length);
+            if (document.id.equals(id)) {
+                return document;
+            }
+        }
+        return null;
+    }
+
+    private WebDocument read(long offset, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long pos = offset + copied;
+            // duplicate, so that concurrent reads do not interfere.
+            ByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (pos % SEGMENT_SIZE));
+            int n = Math.min(length - copied, segment.remaining());
+            segment.get(bytes, copied, n);
+            copied += n;
+        }
+        try {
+            String text = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+            BufferedReader reader = new BufferedReader(new StringReader(text));
+            String meta = reader.readLine();
+            List<String> pageData = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.startsWith("</doc>")) {
+                pageData.add(line);
+            }
+            return WebDocument.fromText(meta, pageData);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read document at " + offset + " in " + corpusFile, e);
+        }
+    }
+}
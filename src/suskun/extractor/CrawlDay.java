@@ -0,0 +1,115 @@
+package suskun.extractor;
+
+import zemberek.core.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Crawled pages of a source for a single day. Pages are either files in a [source]/data/[date] folder
+ * or records of a packed container in [source]/packed/[date].idx
+ */
+public abstract class CrawlDay implements Closeable {
+
+    final Path path;
+    final String source;
+    final String date;
+
+    CrawlDay(Path path, String source, String date) {
+        this.path = path;
+        this.source = source;
+        this.date = date;
+    }
+
+    /**
+     * A crawled page. Name is the url encoded page address, as it is used as the file name by the crawler.
+     */
+    static class Page {
+        final String name;
+        final long size;
+        final long lastModified;
+
+        Page(String name, long size, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Returns all pages of the day, sorted by name.
+     */
+    abstract List<Page> pages() throws IOException;
+
+    /**
+     * Number of pages. This should be cheap as it is used for scheduling.
+     */
+    abstract int pageCount() throws IOException;
+
+    abstract byte[] read(Page page) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    static CrawlDay folder(Path dayDir) {
+        return new Folder(dayDir);
+    }
+
+    static class Folder extends CrawlDay {
+
+        Folder(Path dayDir) {
+            super(dayDir, dayDir.getParent().getParent().toFile().getName(), dayDir.toFile().getName());
+        }
+
+        @Override
+        List<Page> pages() throws IOException {
+            List<Page> pages = new ArrayList<>(5000);
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+                for (Path inFile : ds) {
+                    if (inFile.toFile().isDirectory()) {
+                        Log.warn("%s is a directory. Ignoring.", inFile);
+                        continue;
+                    }
+                    pages.add(new Page(
+                            inFile.toFile().getName(),
+                            inFile.toFile().length(),
+                            inFile.toFile().lastModified()));
+                }
+            }
+            pages.sort((a, b) -> a.name.compareTo(b.name));
+            return pages;
+        }
+
+        @Override
+        int pageCount() throws IOException {
+            int count = 0;
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+                for (Path ignored : ds) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        byte[] read(Page page) throws IOException {
+            return Files.readAllBytes(path.resolve(page.name));
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package suskun.extractor;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import zemberek.core.logging.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packed container for the pages of a crawl day. Instead of one file per page, a day is stored as
+ * [source]/packed/[date].pack holding page contents back to back and [source]/packed/[date].idx holding the
+ * page names and offsets. Records may be gzip compressed individually.
+ * <p>
+ * Data file is memory mapped in segments. Writer makes sure a record never crosses a segment boundary.
+ * <p>
+ * Index format: magic(int) version(int) count(int) then for each page, sorted by name:
+ * name(utf) offset(long) storedLength(int) size(int) lastModified(long) compressed(boolean)
+ */
+public class CrawlPack extends CrawlDay {
+
+    static final String PACK_DIR = "packed";
+    static final String INDEX_SUFFIX = ".idx";
+    static final String DATA_SUFFIX = ".pack";
+
+    private static final int MAGIC = 0x43504b31;
+    private static final int VERSION = 1;
+
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path dataFile;
+    private List<PackedPage> pages;
+    private FileChannel channel;
+    private MappedByteBuffer[] segments;
+
+    static class PackedPage extends Page {
+        final long offset;
+        final int storedLength;
+        final boolean compressed;
+
+        PackedPage(String name, long offset, int storedLength, int size, long lastModified, boolean compressed) {
+            super(name, size, lastModified);
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.compressed = compressed;
+        }
+    }
+
+    CrawlPack(Path indexFile) {
+        super(indexFile,
+                indexFile.getParent().getParent().toFile().getName(),
+                dateOf(indexFile));
+        this.dataFile = indexFile.resolveSibling(date + DATA_SUFFIX);
+    }
+
+    static String dateOf(Path indexFile) {
+        String name = indexFile.toFile().getName();
+        return name.substring(0, name.length() - INDEX_SUFFIX.length());
+    }
+
+    static Path indexFile(Path sourceDir, String date) {
+        return sourceDir.resolve(PACK_DIR).resolve(date + INDEX_SUFFIX);
+    }
+
+    @Override
+    synchronized List<Page> pages() throws IOException {
+        return Collections.unmodifiableList(loadIndex());
+    }
+
+    @Override
+    int pageCount() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            checkHeader(dis);
+            return dis.readInt();
+        }
+    }
+
+    private void checkHeader(DataInputStream dis) throws IOException {
+        int magic = dis.readInt();
+        int version = dis.readInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Unexpected pack index header in " + path);
+        }
+    }
+
+    private synchronized List<PackedPage> loadIndex() throws IOException {
+        if (pages != null) {
+            return pages;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            checkHeader(dis);
+            int count = dis.readInt();
+            List<PackedPage> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(new PackedPage(
+                        dis.readUTF(),
+                        dis.readLong(),
+                        dis.readInt(),
+                        dis.readInt(),
+                        dis.readLong(),
+                        dis.readBoolean()));
+            }
+            pages = list;
+        }
+        return pages;
+    }
+
+    private synchronized MappedByteBuffer[] segments() throws IOException {
+        if (segments != null) {
+            return segments;
+        }
+        channel = FileChannel.open(dataFile, StandardOpenOption.READ);
+        long size = channel.size();
+        int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] buffers = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long start = i * SEGMENT_SIZE;
+            buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        segments = buffers;
+        return segments;
+    }
+
+    @Override
+    byte[] read(Page page) throws IOException {
+        PackedPage p = (PackedPage) page;
+        MappedByteBuffer segment = segments()[(int) (p.offset / SEGMENT_SIZE)];
+        // duplicate, so that concurrent reads do not interfere.
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position((int) (p.offset % SEGMENT_SIZE));
+        byte[] stored = new byte[p.storedLength];
+        buffer.get(stored);
+        if (!p.compressed) {
+            return stored;
+        }
+        byte[] content = new byte[(int) p.size];
+        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(stored))) {
+            ByteStreams.readFully(gis, content);
+        }
+        return content;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        segments = null;
+    }
+
+    /**
+     * Packs all files of a crawl day folder [source]/data/[date] to [source]/packed/[date].pack and .idx
+     * Files are written to temporary names first. Returns the index file.
+     */
+    public static Path pack(Path dayDir, boolean compress) throws IOException {
+        CrawlDay day = CrawlDay.folder(dayDir);
+        Path sourceDir = dayDir.getParent().getParent();
+        Path indexFile = indexFile(sourceDir, day.date);
+        Path dataFile = indexFile.resolveSibling(day.date + DATA_SUFFIX);
+        Files.createDirectories(indexFile.getParent());
+        Path indexTmp = indexFile.resolveSibling(indexFile.toFile().getName() + ".tmp");
+        Path dataTmp = dataFile.resolveSibling(dataFile.toFile().getName() + ".tmp");
+
+        List<Page> pages = day.pages();
+        List<PackedPage> packed = new ArrayList<>(pages.size());
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(dataTmp), 1 << 20)) {
+            long offset = 0;
+            for (Page page : pages) {
+                byte[] content = day.read(page);
+                byte[] stored = compress ? gzip(content) : content;
+                if (stored.length > SEGMENT_SIZE) {
+                    throw new IOException("Page is too large to pack: " + page.name);
+                }
+                // records must not cross segment boundaries.
+                long remaining = SEGMENT_SIZE - offset % SEGMENT_SIZE;
+                if (stored.length > remaining) {
+                    os.write(new byte[(int) remaining]);
+                    offset += remaining;
+                }
+                os.write(stored);
+                packed.add(new PackedPage(
+                        page.name, offset, stored.length, content.length, page.lastModified, compress));
+                offset += stored.length;
+            }
+        }
+
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(indexTmp), 1 << 16))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(packed.size());
+            for (PackedPage p : packed) {
+                dos.writeUTF(p.name);
+                dos.writeLong(p.offset);
+                dos.writeInt(p.storedLength);
+                dos.writeInt((int) p.size);
+                dos.writeLong(p.lastModified);
+                dos.writeBoolean(p.compressed);
+            }
+        }
+        // index is moved last, a pack without an index is ignored.
+        Files.move(dataTmp, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return indexFile;
+    }
+
+    /**
+     * Returns true if the pack has the same pages as the day folder, with the same sizes and modification times.
+     * Crawler may add or change files after a folder is packed, then the pack is stale.
+     */
+    static boolean isCurrent(Path dayDir, Path indexFile) throws IOException {
+        List<Page> files = CrawlDay.folder(dayDir).pages();
+        List<Page> packed;
+        try (CrawlPack pack = new CrawlPack(indexFile)) {
+            packed = pack.pages();
+        }
+        if (files.size() != packed.size()) {
+            return false;
+        }
+        // both are sorted by name.
+        for (int i = 0; i < files.size(); i++) {
+            Page file = files.get(i);
+            Page page = packed.get(i);
+            if (!file.name.equals(page.name) || file.size != page.size || file.lastModified != page.lastModified) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length / 3 + 64);
+        try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+            gos.write(content);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Packs crawl day folders of the sources. Today's folders are skipped as crawler is still writing to them.
+     * Days that are already packed are skipped too, unless their folders have changed after packing.
+     */
+    public static void packAll(Path inRoot, Path sourcesList, boolean compress) throws IOException {
+        Set<Path> sourcePaths = Scripts.loadSourcePaths(inRoot, sourcesList);
+        String today = LocalDate.now().toString();
+        for (Path sourceDir : sourcePaths) {
+            Path data = sourceDir.resolve("data");
+            if (!data.toFile().exists()) {
+                continue;
+            }
+            List<Path> dayDirs = Files.walk(data, 1)
+                    .filter(s -> s.toFile().isDirectory() && !s.equals(data))
+                    .filter(s -> Extractor.DATE.matcher(s.toFile().getName()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+            for (Path dayDir : dayDirs) {
+                String date = dayDir.toFile().getName();
+                if (date.equals(today)) {
+                    Log.info("%s is today's folder, skipping.", dayDir);
+                    continue;
+                }
+                Path indexFile = indexFile(sourceDir, date);
+                if (indexFile.toFile().exists()) {
+                    if (isCurrent(dayDir, indexFile)) {
+                        Log.info("%s exists, skipping.", indexFile);
+                        continue;
+                    }
+                    Log.info("%s has changed after it is packed, packing again.", dayDir);
+                }
+                Stopwatch sw = Stopwatch.createStarted();
+                pack(dayDir, compress);
+                Log.info("%s packed to %s in %.1f seconds.", dayDir, indexFile,
+                        sw.elapsed(TimeUnit.MILLISECONDS) / 1000f);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path inRoot = Paths.get("/media/aaa/Data/crawl/news");
+        Path sourcesList = Paths.get("test");
+        packAll(inRoot, sourcesList, true);
+    }
+}
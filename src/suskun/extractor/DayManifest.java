@@ -0,0 +1,130 @@
+package suskun.extractor;
+
+import com.google.common.base.Splitter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of input files that went into an extracted crawl day file and the size of that file.
+ * Extractor uses this for detecting new or changed crawl files and for recovering from interrupted writes.
+ * Files that are skipped because of page limits or that failed are recorded too, so they are not tried again
+ * in every run, only when their size or modification time changes. File format is:
+ * <pre>
+ * output-size=[size of the extracted file in bytes]
+ * [file name] TAB [file size] TAB [last modified time in millis] [TAB SKIPPED|FAILED if not extracted]
+ * ...
+ * </pre>
+ */
+public class DayManifest {
+
+    private static final String OUTPUT_SIZE = "output-size=";
+
+    long outputSize;
+    Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Result of a file. Only extracted files have a document in the output.
+     */
+    enum Status {
+        EXTRACTED, SKIPPED, FAILED
+    }
+
+    static class Entry {
+        String name;
+        long size;
+        long lastModified;
+        Status status;
+
+        Entry(String name, long size, long lastModified, Status status) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.status = status;
+        }
+
+        static Entry of(CrawlDay.Page page) {
+            return of(page, Status.EXTRACTED);
+        }
+
+        static Entry of(CrawlDay.Page page, Status status) {
+            return new Entry(page.name, page.size, page.lastModified, status);
+        }
+
+        @Override
+        public String toString() {
+            String s = name + "\t" + size + "\t" + lastModified;
+            return status == Status.EXTRACTED ? s : s + "\t" + status;
+        }
+    }
+
+    /**
+     * Returns true if there is an entry with same name, size and modification time, whatever its status is.
+     */
+    public boolean contains(Entry entry) {
+        Entry e = entries.get(entry.name);
+        return e != null && e.size == entry.size && e.lastModified == entry.lastModified;
+    }
+
+    public void add(Entry entry) {
+        entries.put(entry.name, entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads manifest file. Returns null if file does not exist.
+     */
+    public static DayManifest load(Path path) throws IOException {
+        if (Files.notExists(path)) {
+            return null;
+        }
+        DayManifest manifest = new DayManifest();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            if (line.trim().length() == 0) {
+                continue;
+            }
+            if (line.startsWith(OUTPUT_SIZE)) {
+                manifest.outputSize = Long.parseLong(line.substring(OUTPUT_SIZE.length()).trim());
+                continue;
+            }
+            List<String> tokens = Splitter.on('\t').splitToList(line);
+            if (tokens.size() != 3 && tokens.size() != 4) {
+                throw new IOException("Malformed manifest line [" + line + "] in " + path);
+            }
+            Status status;
+            try {
+                status = tokens.size() == 3 ? Status.EXTRACTED : Status.valueOf(tokens.get(3));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed manifest line [" + line + "] in " + path);
+            }
+            manifest.add(new Entry(
+                    tokens.get(0), Long.parseLong(tokens.get(1)), Long.parseLong(tokens.get(2)), status));
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest to a temporary file first and then moves it to the target.
+     */
+    public void save(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.toFile().getName() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(tmp.toFile(), "utf-8")) {
+            pw.println(OUTPUT_SIZE + outputSize);
+            for (Entry entry : entries.values()) {
+                pw.println(entry);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
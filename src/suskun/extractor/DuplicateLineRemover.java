@@ -8,13 +8,16 @@ import zemberek.core.text.Regexps;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 public class DuplicateLineRemover {
@@ -23,21 +26,46 @@ public class DuplicateLineRemover {
     LongUIntMap map2 = new LongUIntMap(10_000_000);
 
     Locale locale = new Locale("Turkish");
-    Map<String, ContentPatterns> contentPatternsMap;
+    RuleRegistry rules;
+
+    // processed forms and hashes of repeated lines, null if line caches are disabled.
+    LineCache<String, ProcessedLine> lineCache =
+            LineCache.SIZE == 0 ? null : new LineCache<>("duplicate-lines", LineCache.SIZE);
+
+    private static class ProcessedLine {
+        final String processed;
+        final long hash1;
+        final long hash2;
+
+        ProcessedLine(String processed, long hash1, long hash2) {
+            this.processed = processed;
+            this.hash1 = hash1;
+            this.hash2 = hash2;
+        }
+    }
 
     public DuplicateLineRemover(Path patternsPath) throws IOException {
-        contentPatternsMap = ContentPatterns.fromFile(patternsPath);
+        rules = RuleRegistry.get(patternsPath);
     }
 
     public void addForDuplicates(WebCorpus corpus) {
-        ContentPatterns patterns = contentPatternsMap.get(corpus.source);
+        addForDuplicates(corpus.source, corpus.getPages().iterator());
+    }
+
+    /**
+     * Counts lines of documents one by one, documents can be read with WebDocumentReader or
+     * ParallelDocumentReader.
+     */
+    public void addForDuplicates(String source, Iterator<WebDocument> documents) {
+        ContentPatterns patterns = rules.patterns(source);
         if (patterns == null) {
-            Log.info("No content patterns for [%s]", corpus.source);
+            Log.info("No content patterns for [%s]", source);
         }
 
         int ignoredCount = 0;
 
-        for (WebDocument document : corpus.getPages()) {
+        while (documents.hasNext()) {
+            WebDocument document = documents.next();
 
             if (patterns != null) {
                 patterns.applyReplacePatterns(document);
@@ -51,38 +79,48 @@ public class DuplicateLineRemover {
                 if (line.trim().length() == 0) {
                     continue;
                 }
-                String processed = process(line);
-                if (processed.length() == 0) {
+                long start = System.nanoTime();
+                ProcessedLine processed = processedLine(line);
+                if (processed.processed.length() == 0) {
                     continue;
                 }
-                long hash1 = hash1(processed);
-                long hash2 = hash2(processed);
-                map1.increment(hash1);
-                map2.increment(hash2);
+                map1.increment(processed.hash1);
+                map2.increment(processed.hash2);
+                Metrics.HASH.record(source, System.nanoTime() - start);
             }
         }
         Log.info("Ignored count = %d", ignoredCount);
 
     }
 
-    private long hash2(String line) {
+    long hash2(String line) {
         return Hashing.murmur3_128(0Xdeadbeef).hashBytes(line.getBytes()).asLong();
     }
 
-    private long hash1(String line) {
+    long hash1(String line) {
         return Hashing.murmur3_128().hashBytes(line.getBytes()).asLong();
     }
 
     public WebCorpus reduceDuplicates(WebCorpus corpus) {
-        ContentPatterns patterns = contentPatternsMap.get(corpus.source);
+        List<WebDocument> reducedDocs = new ArrayList<>(corpus.documentCount());
+        reduceDuplicates(corpus.source, corpus.getPages().iterator(), reducedDocs::add);
+        return new WebCorpus(corpus.source, corpus.id, reducedDocs);
+    }
+
+    /**
+     * Streaming form of reduceDuplicates. Documents are reduced one by one and the ones with lines left are given
+     * to consumer.
+     */
+    public void reduceDuplicates(String source, Iterator<WebDocument> documents, Consumer<WebDocument> consumer) {
+        ContentPatterns patterns = rules.patterns(source);
         if (patterns == null) {
-            Log.info("No content patterns for [%s]", corpus.source);
+            Log.info("No content patterns for [%s]", source);
         }
 
         int ignoredCount = 0;
-        List<WebDocument> reducedDocs = new ArrayList<>(corpus.documentCount());
 
-        for (WebDocument document : corpus.getPages()) {
+        while (documents.hasNext()) {
+            WebDocument document = documents.next();
 
             if (patterns != null) {
                 patterns.applyReplacePatterns(document);
@@ -93,22 +131,23 @@ public class DuplicateLineRemover {
                 }
             }
 
+            long start = System.nanoTime();
             List<String> reducedLines = new ArrayList<>();
             for (String line : document.lines) {
                 if (line.trim().length() == 0) {
                     continue;
                 }
-                String processed = process(line);
-                if (processed.length() == 0) {
+                ProcessedLine processed = processedLine(line);
+                if (processed.processed.length() == 0) {
                     continue;
                 }
-                long hash1 = hash1(processed);
-                long hash2 = hash2(processed);
+                long hash1 = processed.hash1;
+                long hash2 = processed.hash2;
 
                 int count1 = map1.get(hash1);
                 int count2 = map2.get(hash2);
 
-                int minCount = determineAmount(processed);
+                int minCount = determineAmount(processed.processed);
 
                 // duplicated.
                 if (count1 > minCount && count2 > minCount) {
@@ -120,11 +159,12 @@ public class DuplicateLineRemover {
             }
             if (reducedLines.size() > 0) {
                 WebDocument doc = document.copy(reducedLines);
-                reducedDocs.add(doc);
+                consumer.accept(doc);
             }
+            Metrics.DEDUPE.record(source, System.nanoTime() - start);
+            Metrics.DOCUMENTS.increment(source);
         }
         Log.info("Ignored count = %d", ignoredCount);
-        return new WebCorpus(corpus.source, corpus.id, reducedDocs);
     }
 
     private int determineAmount(String line) {
@@ -138,7 +178,20 @@ public class DuplicateLineRemover {
         } else return 4;
     }
 
-    private String process(String line) {
+    private ProcessedLine processedLine(String line) {
+        return lineCache == null ? computeProcessedLine(line) : lineCache.get(line, this::computeProcessedLine);
+    }
+
+    // hashes of empty lines are not used.
+    private ProcessedLine computeProcessedLine(String line) {
+        String processed = process(line);
+        if (processed.length() == 0) {
+            return new ProcessedLine(processed, 0, 0);
+        }
+        return new ProcessedLine(processed, hash1(processed), hash2(processed));
+    }
+
+    String process(String line) {
         return line.toLowerCase(locale).replaceAll("[^a-zçğıöşü]", "");
     }
 
@@ -149,6 +202,7 @@ public class DuplicateLineRemover {
         Files.createDirectories(outRoot);
 
         DuplicateLineRemover remover = new DuplicateLineRemover(Paths.get("content-rules.txt"));
+        Metrics.reset();
 
         List<Path> corpusRoots = Lists.newArrayList(Files.walk(corporaRoot, 1)
                 .filter(path -> path.toFile().isDirectory() && !path.equals(corporaRoot)).iterator());
@@ -167,11 +221,10 @@ public class DuplicateLineRemover {
                     continue;
                 }
 
-                Log.info("Loading %s", file);
-                WebCorpus corpus = new WebCorpus(corpusRoot.toFile().getName(), file.toFile().getName());
-                corpus.addDocuments(WebCorpus.loadDocuments(file));
-                Log.info("Processing %s", corpus);
-                remover.addForDuplicates(corpus);
+                Log.info("Processing %s", file);
+                try (ParallelDocumentReader reader = ParallelDocumentReader.open(file)) {
+                    remover.addForDuplicates(corpusRoot.toFile().getName(), reader);
+                }
             }
         }
 
@@ -199,16 +252,24 @@ public class DuplicateLineRemover {
                     continue;
                 }
 
-                Log.info("Loading %s", file);
-                WebCorpus corpus = new WebCorpus(corpusRoot.toFile().getName(), file.toFile().getName());
-                corpus.addDocuments(WebCorpus.loadDocuments(file));
-                Log.info("Reducing %s", corpus);
-                WebCorpus reduced = remover.reduceDuplicates(corpus);
-                Log.info("Before lines = %d, After lines = %d", corpus.totalPageLineCount(), reduced.totalPageLineCount());
-                Log.info("Saving %s", corpus);
-                reduced.save(outDir.resolve(file.toFile().getName()), false);
+                Log.info("Reducing %s", file);
+                String source = corpusRoot.toFile().getName();
+                int[] lineCount = {0};
+                Path tmp = Extractor.tmpFile(outFile.toPath());
+                try (ParallelDocumentReader reader = ParallelDocumentReader.open(file);
+                     PrintWriter p = new PrintWriter(tmp.toFile(), "utf-8")) {
+                    remover.reduceDuplicates(source, reader, document -> {
+                        long start = System.nanoTime();
+                        WebCorpus.write(p, document, false);
+                        Metrics.WRITE.record(source, System.nanoTime() - start);
+                        lineCount[0] += document.lines.size();
+                    });
+                }
+                Files.move(tmp, outFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Log.info("After lines = %d", lineCount[0]);
             }
         }
+        Metrics.saveReport(outRoot, "duplicate-line-remover");
     }
 
 }
@@ -0,0 +1,176 @@
+package suskun.extractor;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import zemberek.core.logging.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * On disk cache of boilerpipe results. Key is the hash of raw page bytes and the extraction settings, value is
+ * the extracted text, title, category and labels. Entries are stored as files under [root]/[first 2 key chars]/.
+ * When total size of entries exceeds the limit, least recently used entries are removed. Recency is kept in
+ * memory and approximated by file modification times after a restart.
+ * <p>
+ * This class is thread safe. Cache files are written to a temporary file first and then moved. Hits and misses are
+ * counted per source in Metrics as cache-hits and cache-misses.
+ */
+public class ExtractionCache {
+
+    private final Path root;
+    private final long maxBytes;
+    private long totalBytes;
+
+    // key -> entry file size. Access ordered.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(10000, 0.75f, true);
+
+    private static final Metrics.Counter HITS = Metrics.counter("cache-hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("cache-misses");
+
+    public ExtractionCache(Path root, long maxBytes) throws IOException {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+        loadEntries();
+    }
+
+    private void loadEntries() throws IOException {
+        List<File> files;
+        try (Stream<Path> stream = Files.walk(root, 2)) {
+            files = stream
+                    .map(Path::toFile)
+                    .filter(f -> f.isFile() && !f.getName().endsWith(".tmp"))
+                    .sorted(Comparator.comparingLong(File::lastModified))
+                    .collect(Collectors.toList());
+        }
+        synchronized (this) {
+            for (File file : files) {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+            evict();
+        }
+        Log.info("Extraction cache %s has %d entries, %d bytes.", root, entries.size(), totalBytes);
+    }
+
+    /**
+     * Generates the cache key. Settings should contain everything that changes the extraction result for same
+     * content, like extractor type and metadata patterns.
+     */
+    public String key(String settings, byte[] content) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(settings, StandardCharsets.UTF_8);
+        hasher.putBytes(content);
+        return hasher.hash().toString();
+    }
+
+    private Path path(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Returns cached extraction for the key or null. Returned data only has title, category, labels and text.
+     * Source of the page is only used for counting hits and misses.
+     */
+    public Extractor.ExtractData get(String key, String source) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                MISSES.increment(source);
+                return null;
+            }
+        }
+        Path path = path(key);
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            Extractor.ExtractData data = new Extractor.ExtractData();
+            data.title = readString(dis);
+            data.category = readString(dis);
+            int labelCount = dis.readInt();
+            List<String> labels = new ArrayList<>(labelCount);
+            for (int i = 0; i < labelCount; i++) {
+                labels.add(readString(dis));
+            }
+            data.labels = labels;
+            data.text = readString(dis);
+            path.toFile().setLastModified(System.currentTimeMillis());
+            HITS.increment(source);
+            return data;
+        } catch (IOException e) {
+            // entry might be evicted by another thread.
+            MISSES.increment(source);
+            return null;
+        }
+    }
+
+    public void put(String key, Extractor.ExtractData data) {
+        Path path = path(key);
+        Path tmp = path.resolveSibling(key + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                writeString(dos, data.title);
+                writeString(dos, data.category);
+                dos.writeInt(data.labels.size());
+                for (String label : data.labels) {
+                    writeString(dos, label);
+                }
+                writeString(dos, data.text);
+            }
+            long size = Files.size(tmp);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                Long old = entries.put(key, size);
+                totalBytes += size - (old == null ? 0 : old);
+                evict();
+            }
+        } catch (IOException e) {
+            Log.warn("Cannot write cache entry %s : %s", path, e.getMessage());
+        }
+    }
+
+    // must be called while holding the lock.
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            path(eldest.getKey()).toFile().delete();
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long hitCount() {
+        return HITS.value();
+    }
+
+    public long missCount() {
+        return MISSES.value();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long h = HITS.value();
+        long total = h + MISSES.value();
+        return String.format("Extraction cache %s : %d entries, %d bytes, %d hits in %d lookups (%.1f%%)",
+                root, entries.size(), totalBytes, h, total, total == 0 ? 0 : h * 100d / total);
+    }
+}
@@ -3,32 +3,37 @@ package suskun.extractor;
 
 import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
-import com.kohlschutter.boilerpipe.extractors.ArticleExtractor;
-import com.kohlschutter.boilerpipe.extractors.KeepEverythingExtractor;
-import zemberek.core.concurrency.BlockingExecutor;
+import com.google.common.io.CharStreams;
+import com.kohlschutter.boilerpipe.BoilerpipeProcessingException;
 import zemberek.core.logging.Log;
-import zemberek.core.text.Regexps;
 import zemberek.core.text.TextUtil;
 
 import java.io.*;
 import java.net.URLDecoder;
-import java.nio.charset.Charset;
-import java.nio.file.DirectoryStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class Extractor {
 
-    private Map<String, ContentPatterns> patterns;
+    private RuleRegistry rules;
     private Set<Path> sourcePaths = new HashSet<>();
+    // optional cache for boilerpipe results.
+    private ExtractionCache cache;
+    // pages larger than the limit, or taking longer than the limit are skipped and reported.
+    private PageBudget pageBudget = PageBudget.UNLIMITED;
 
     public Extractor() throws IOException {
-        patterns = ContentPatterns.fromFile(Paths.get("content-rules.txt"));
+        rules = RuleRegistry.get();
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
@@ -36,58 +41,175 @@ public class Extractor {
         Path inRoot = Paths.get("/media/aaa/Data/crawl/news");
         Path outRoot = Paths.get("/media/aaa/Data/corpora/news-foo");
         Path sourcesList = Paths.get("test");
+        Path cacheRoot = Paths.get("/media/aaa/Data/crawl/extraction-cache");
 
-        extractAll(inRoot, outRoot, 8, sourcesList,-1 );
+        PageBudget pageBudget = new PageBudget(20_000_000, 30_000);
+
+        extractAll(inRoot, outRoot, 8, sourcesList, -1, cacheRoot, pageBudget);
     }
 
-    private static void extractAll(Path inRoot, Path outRoot, int threadCount, Path sourcesList, int dayCount)
-            throws IOException, InterruptedException {
+    private static void extractAll(
+            Path inRoot,
+            Path outRoot,
+            int threadCount,
+            Path sourcesList,
+            int dayCount,
+            Path cacheRoot,
+            PageBudget pageBudget) throws IOException, InterruptedException {
         Extractor e = new Extractor();
         e.sourcePaths = new LinkedHashSet<>(Scripts.loadSourcePaths(inRoot, sourcesList));
+        if (cacheRoot != null) {
+            e.cache = new ExtractionCache(cacheRoot, 20_000_000_000L);
+        }
+        if (pageBudget != null) {
+            e.pageBudget = pageBudget;
+        }
+        Metrics.reset();
         e.extract(outRoot, threadCount, dayCount);
+        if (e.cache != null) {
+            Log.info(e.cache);
+        }
+        if (Metrics.quarantineCount() > 0) {
+            Log.warn("%d pages are skipped because of page limits (%s).", Metrics.quarantineCount(), e.pageBudget);
+        }
+        Metrics.saveReport(outRoot, "extractor");
     }
 
     static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
 
+    // hidden directory in source output directories for manifests and temporary files.
+    static final String WORK_DIR = ".extractor";
+
+    /**
+     * Returns the temporary file of an output file in the work directory next to it, creates the directory if
+     * necessary. Tools that walk output directories only read regular files, so a temporary file left by a failed
+     * run is not taken as a corpus file. It should be moved to the output file with ATOMIC_MOVE when complete.
+     */
+    static Path tmpFile(Path outFile) throws IOException {
+        Path workDir = outFile.resolveSibling(WORK_DIR);
+        Files.createDirectories(workDir);
+        return workDir.resolve(outFile.toFile().getName() + ".tmp");
+    }
+
+    // a block has at most this many pages or bytes.
+    static final int BLOCK_SIZE = 500;
+    static final long BLOCK_BYTES = 64L * 1024 * 1024;
+
     private void extract(final Path outRoot, int threadCount, int dayCount)
             throws IOException, InterruptedException {
 
+        // runs day tasks and blocks of very large days that are processed in parallel. A single work stealing pool
+        // is used for both, so at most threadCount threads are busy. A day task waiting for its blocks does not
+        // hold a thread's share, pool runs other tasks or compensates for the blocked thread. Tasks are taken in
+        // submission order, so largest days start first.
+        ForkJoinPool pool = new ForkJoinPool(threadCount, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        // reads the next blocks of days while current ones are processed. A quarter of the heap is used at most.
+        BlockLoader loader = new BlockLoader(
+                threadCount, Runtime.getRuntime().maxMemory() / 4, BLOCK_BYTES);
+
+        // collect crawl days of all sources first, so that a single pool can be kept busy until the end.
+        List<DayTask> dayTasks = new ArrayList<>();
         for (Path sourceDir : sourcePaths) {
             Path data = sourceDir.resolve("data");
-            if (!data.toFile().exists()) {
+            Path packed = sourceDir.resolve(CrawlPack.PACK_DIR);
+            if (!data.toFile().exists() && !packed.toFile().exists()) {
                 continue;
             }
-            extractFromSourceCrawls(sourceDir, outRoot, threadCount, dayCount);
+            dayTasks.addAll(collectDayTasks(sourceDir, outRoot, dayCount, pool, loader));
+        }
+
+        // largest days first. Otherwise a huge day picked up late keeps a single thread busy after the rest is done.
+        dayTasks.sort((a, b) -> Integer.compare(b.fileCount, a.fileCount));
+
+        Log.info("There are %d crawl days to process from %d sources.", dayTasks.size(), sourcePaths.size());
+
+        CompletionService<Path> service = new ExecutorCompletionService<>(pool);
+
+        for (DayTask dayTask : dayTasks) {
+            service.submit(dayTask.task);
+        }
+
+        int taskCounter = dayTasks.size();
+        try {
+            List<Path> results = new ArrayList<>();
+            while (results.size() < taskCounter) {
+                Path e = service.take().get();
+                if (e != null) {
+                    results.add(e);
+                } else {
+                    taskCounter--;
+                }
+            }
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            throw new RuntimeException("An error occurred during extraction", e);
+        } finally {
+            pool.shutdown();
+            loader.close();
         }
     }
 
-    private void extractFromSourceCrawls(final Path sourceCrawlRoot, final Path outRoot, int threadCount, int dayCount)
-            throws IOException {
+    static class DayTask {
+        ExtractorTask task;
+        int fileCount;
 
-        String sourceName = sourceCrawlRoot.toFile().getName();
+        DayTask(ExtractorTask task, int fileCount) {
+            this.task = task;
+            this.fileCount = fileCount;
+        }
+    }
 
-        Path data = sourceCrawlRoot.resolve("data");
+    private List<DayTask> collectDayTasks(
+            final Path sourceCrawlRoot,
+            final Path outRoot,
+            int dayCount,
+            ForkJoinPool chunkPool,
+            BlockLoader loader) throws IOException {
+
+        String sourceName = sourceCrawlRoot.toFile().getName();
 
-        List<Path> crawlDayFolders = Files
-                .walk(data, 1)
-                .filter(s -> s.toFile().isDirectory() && !s.equals(data))
-                .collect(Collectors.toList());
-        Collections.sort(crawlDayFolders);
-        Collections.reverse(crawlDayFolders);
+        // days by date, latest first. If a day is packed, packed container is used instead of the folder unless
+        // the folder has changed after packing.
+        Map<String, CrawlDay> crawlDays = new TreeMap<>(Comparator.reverseOrder());
 
-        Log.info("There are %d crawl day folders for %s", crawlDayFolders.size(), sourceName);
+        Path data = sourceCrawlRoot.resolve("data");
+        if (data.toFile().exists()) {
+            List<Path> crawlDayFolders = Files
+                    .walk(data, 1)
+                    .filter(s -> s.toFile().isDirectory() && !s.equals(data))
+                    .collect(Collectors.toList());
+            for (Path dayFolder : crawlDayFolders) {
+                crawlDays.put(dayFolder.toFile().getName(), CrawlDay.folder(dayFolder));
+            }
+        }
+        Path packed = sourceCrawlRoot.resolve(CrawlPack.PACK_DIR);
+        if (packed.toFile().exists()) {
+            List<Path> indexFiles = Files
+                    .walk(packed, 1)
+                    .filter(s -> s.toFile().getName().endsWith(CrawlPack.INDEX_SUFFIX))
+                    .collect(Collectors.toList());
+            for (Path indexFile : indexFiles) {
+                String date = CrawlPack.dateOf(indexFile);
+                // crawler may add files to a folder after it is packed, such a folder is used instead.
+                CrawlDay folder = crawlDays.get(date);
+                if (folder != null && !CrawlPack.isCurrent(folder.path, indexFile)) {
+                    Log.info("%s has files that are not in %s, using the folder.", folder, indexFile);
+                    continue;
+                }
+                crawlDays.put(date, new CrawlPack(indexFile));
+            }
+        }
 
-        ExecutorService es = new BlockingExecutor(threadCount, threadCount);
-        CompletionService<Path> service = new ExecutorCompletionService<>(es);
+        Log.info("There are %d crawl days for %s", crawlDays.size(), sourceName);
 
-        int taskCounter = 0;
+        List<DayTask> dayTasks = new ArrayList<>();
 
         int dayCounter = 0;
 
-        for (Path day : crawlDayFolders) {
+        for (CrawlDay day : crawlDays.values()) {
 
             // make sure we are processing correct folders.
-            String dateString = day.toFile().getName();
+            String dateString = day.date;
             if (!DATE.matcher(dateString).matches()) {
                 Log.warn("Incorrect folder name: %s. A Date pattern is expected.", day);
                 continue;
@@ -95,8 +217,9 @@ public class Extractor {
 
             String extractString = null;
 
-            if (patterns.containsKey(sourceName)) {
-                extractString = patterns.get(sourceName).extractor;
+            ContentPatterns patterns = rules.patterns(sourceName);
+            if (patterns != null) {
+                extractString = patterns.extractor;
             }
 
             Path outDir = outRoot.resolve(sourceName);
@@ -105,13 +228,15 @@ public class Extractor {
 
             Path outFile = outDir.resolve(dateString);
 
-            Log.info("Processing " + day + " to " + outFile);
-
-            if (Files.notExists(outFile)) {
-                service.submit(new ExtractorTask(day, outFile, extractString, patterns.get(sourceName), 500, false));
-                taskCounter++;
+            // files generated before manifests were introduced do not have one. We cannot tell what is in them.
+            if (Files.exists(outFile) && Files.notExists(ExtractorTask.manifestFile(outFile))) {
+                Log.warn("File %s exist without a manifest, skipping.", outFile);
             } else {
-                Log.warn("File %s exist, skipping.", outFile);
+                Log.info("Adding " + day + " to " + outFile);
+                ExtractorTask task = new ExtractorTask(
+                        day, outFile, extractString, patterns, BLOCK_SIZE, false, chunkPool, loader,
+                        cache, pageBudget);
+                dayTasks.add(new DayTask(task, day.pageCount()));
             }
 
             dayCounter++;
@@ -120,30 +245,15 @@ public class Extractor {
             }
 
         }
-        es.shutdown();
-        try {
-            List<Path> results = new ArrayList<>();
-            while (results.size() < taskCounter) {
-                Path e = service.take().get();
-                if (e != null) {
-                    results.add(e);
-                } else {
-                    taskCounter--;
-                }
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-            throw new RuntimeException("An error occurred during recognition", e);
-        }
+        return dayTasks;
     }
 
-
     static class FileContent {
-        Path path;
-        String content;
+        CrawlDay.Page page;
+        byte[] content;
 
-        public FileContent(Path path, String content) {
-            this.path = path;
+        public FileContent(CrawlDay.Page page, byte[] content) {
+            this.page = page;
             this.content = content;
         }
     }
@@ -156,32 +266,67 @@ public class Extractor {
         String crawlDate;
         String text;
         List<String> labels = new ArrayList<>();
+        // crawl file of the data, not written.
+        CrawlDay.Page page;
+        // if not EXTRACTED, there is no document for the page. It is only recorded in the manifest.
+        DayManifest.Status status = DayManifest.Status.EXTRACTED;
+
+        static ExtractData notExtracted(CrawlDay.Page page, DayManifest.Status status) {
+            ExtractData data = new ExtractData();
+            data.page = page;
+            data.status = status;
+            return data;
+        }
     }
 
     private static final class ExtractorTask implements Callable<Path> {
 
-        private static final Pattern pattern =
-                Pattern.compile("<head>.*</head>", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+        private static final HtmlNormalizer normalizer = HtmlNormalizer.DEFAULT;
+
+        private static final Metrics.Timer LOAD_WAIT = Metrics.timer("load-wait");
 
-        final Path inDir;
+        // part of extraction cache keys. Increment when extract(..) gives different results for the same page.
+        private static final int EXTRACTION_VERSION = 1;
+
+        final CrawlDay day;
         final Path outFile;
         String extractType;
         ContentPatterns patterns;
         int blockSize;
         boolean extractMetaData;
-
-        ExtractorTask(Path inDir,
+        // if not null, blocks of large days are processed in parallel using this pool.
+        ForkJoinPool chunkPool;
+        BlockLoader loader;
+        // if not null, boilerpipe results are cached.
+        ExtractionCache cache;
+        // finds label, category and title patterns in a single scan. Only used if metadata is extracted.
+        FirstMatchFinder metadataFinder;
+        PageBudget pageBudget;
+
+        ExtractorTask(CrawlDay day,
                       Path outFile,
                       String extractType,
                       ContentPatterns patterns,
                       int blockSize,
-                      boolean extractMetadata) {
-            this.inDir = inDir;
+                      boolean extractMetadata,
+                      ForkJoinPool chunkPool,
+                      BlockLoader loader,
+                      ExtractionCache cache,
+                      PageBudget pageBudget) {
+            this.day = day;
             this.outFile = outFile;
             this.extractType = extractType;
             this.patterns = patterns;
             this.blockSize = blockSize;
             this.extractMetaData = extractMetadata;
+            this.chunkPool = chunkPool;
+            this.loader = loader;
+            this.cache = cache;
+            this.pageBudget = pageBudget;
+            if (extractMetadata && patterns != null) {
+                metadataFinder = new FirstMatchFinder(Arrays.asList(
+                        patterns.labelPattern, patterns.categoryPattern, patterns.titlePattern));
+            }
         }
 
         @Override
@@ -191,142 +336,359 @@ public class Extractor {
                 extractType = "ARTICLE";
             }
 
-            // load all paths in the directory.
-            List<Path> paths = getPaths();
-            Collections.sort(paths);
-            if (paths == null) return null;
-
-            int count = 0;
-            int start = 0, end = blockSize;
-            if (paths.size() < end) {
-                end = paths.size();
+            try {
+                return extract();
+            } finally {
+                try {
+                    day.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-            Stopwatch sw = Stopwatch.createStarted();
+        }
 
-            List<ExtractData> extractDataList = new ArrayList<>(10000);
-            while (start < paths.size()) {
+        private Path extract() {
 
-                List<Path> block = paths.subList(start, end);
-                start = end;
-                end += blockSize;
-                if (paths.size() < end) {
-                    end = paths.size();
-                }
-                long st = sw.elapsed(TimeUnit.MILLISECONDS);
-                List<FileContent> contents = new ArrayList<>();
+            // load all pages of the day.
+            List<CrawlDay.Page> pages = getPages();
+            if (pages == null) return null;
 
-                for (Path path : block) {
-                    try {
-                        String content = new String(Files.readAllBytes(path), Charset.forName("UTF-8"));
-                        contents.add(new FileContent(path, content));
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            Path manifestFile = manifestFile(outFile);
+            Path tmpFile = manifestFile.resolveSibling(outFile.toFile().getName() + ".tmp");
+
+            // only new files are extracted and appended if there is a valid previous extraction.
+            DayManifest previous;
+            try {
+                Files.createDirectories(manifestFile.getParent());
+                previous = previousManifest(manifestFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            DayManifest manifest = previous == null ? new DayManifest() : previous;
+            List<CrawlDay.Page> pending = new ArrayList<>();
+            boolean changed = false;
+            for (CrawlDay.Page page : pages) {
+                DayManifest.Entry entry = DayManifest.Entry.of(page);
+                if (!manifest.contains(entry)) {
+                    pending.add(page);
+                    DayManifest.Entry old = manifest.entries.get(entry.name);
+                    changed |= old != null && old.status == DayManifest.Status.EXTRACTED;
                 }
+            }
+            // appending a changed file would leave two documents with the same id, so the day is extracted again.
+            // A changed file that was skipped or failed has no document, it is only appended.
+            if (changed) {
+                Log.info("There are changed files in %s. Extracting all again to %s", day, outFile);
+                previous = null;
+                manifest = new DayManifest();
+                pending = pages;
+            }
+            if (pending.isEmpty()) {
+                Log.info("%s is up to date.", outFile);
+                return outFile;
+            }
+            if (previous != null) {
+                Log.info("There are %d new files in %s. Appending to %s",
+                        pending.size(), day, outFile);
+            }
+
+            List<List<CrawlDay.Page>> blocks = loader.partition(pending, blockSize);
+            boolean parallel = chunkPool != null && blocks.size() > 2;
 
-                Log.info("Loaded %d from %s in %.1f seconds. Processing. (ThreadID=%d)",
-                        block.size(),
-                        inDir,
-                        (sw.elapsed(TimeUnit.MILLISECONDS) - st) / 1000f,
-                        Thread.currentThread().getId());
-                st = sw.elapsed(TimeUnit.MILLISECONDS);
-                for (FileContent fileContent : contents) {
-                    String text = fileContent.content;
-                    //TODO: add more evil chars
-                    text = text.replaceAll("\\u00a0"," "); // replace evil space chars.
-                    Path inFile = fileContent.path;
+            int count = 0;
+            Stopwatch sw = Stopwatch.createStarted();
+
+            // documents are written as soon as their block is processed, so only a few blocks are kept in memory.
+            // Output goes to a temporary file first and it is moved to the actual output file when complete.
+            Log.info("Saving to file %s", outFile);
+            try {
+                if (previous != null) {
+                    copyPrefix(outFile, tmpFile, previous.outputSize);
+                } else {
+                    Files.deleteIfExists(tmpFile);
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return null;
+            }
+            try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile.toFile(), true), 10_000_000),
+                    StandardCharsets.UTF_8))) {
+
+                if (parallel) {
+                    // blocks of a large day are processed in parallel but written in the original order.
+                    // At most [parallelism + 1] blocks are in flight, so one block is read while all threads work.
+                    Log.info("Processing %d blocks of %s in parallel.", blocks.size(), day);
+                    Deque<CompletableFuture<List<ExtractData>>> inFlight = new ArrayDeque<>();
+                    for (List<CrawlDay.Page> block : blocks) {
+                        if (inFlight.size() > chunkPool.getParallelism()) {
+                            count += write(pw, inFlight.poll().join(), manifest);
+                        }
+                        inFlight.add(loader.load(day, block).thenApplyAsync(this::process, chunkPool));
+                    }
+                    while (!inFlight.isEmpty()) {
+                        count += write(pw, inFlight.poll().join(), manifest);
+                    }
+                } else {
+                    // next block is read while the current one is processed.
+                    CompletableFuture<BlockLoader.Block> next = loader.load(day, blocks.get(0));
                     try {
-                        List<String> labels = (extractMetaData && patterns != null && patterns.labelPattern != null) ?
-                                extractLabels(text, patterns.labelPattern) : Collections.emptyList();
-                        String category = (extractMetaData && patterns != null && patterns.categoryPattern != null) ?
-                                extractCategory(text, patterns.categoryPattern) : "";
-                        String title = (extractMetaData && patterns != null && patterns.titlePattern != null) ?
-                                extractTitle(text, patterns.titlePattern) : "";
-
-                        text = pattern.matcher(text).replaceAll("<head><meta charset=\"UTF-8\"></head>");
-                        if (extractType == null || extractType.equals("ARTICLE")) {
-                            text = ArticleExtractor.INSTANCE.getText(text);
-                        } else if (extractType.equals("EVERYTHING")) {
-                            text = KeepEverythingExtractor.INSTANCE.getText(text);
+                        for (int i = 0; i < blocks.size(); i++) {
+                            long start = System.nanoTime();
+                            BlockLoader.Block block = next.join();
+                            LOAD_WAIT.record(day.source, System.nanoTime() - start);
+                            next = i + 1 < blocks.size() ? loader.load(day, blocks.get(i + 1)) : null;
+                            count += write(pw, process(block), manifest);
+                        }
+                    } finally {
+                        // if we fail in the middle, block that is read ahead is given back to the budget.
+                        if (next != null) {
+                            next.thenAccept(loader::release);
                         }
-                        String id = URLDecoder.decode(inFile.toFile().getName(), "utf-8");
-                        String source = inDir.getParent().getParent().toFile().getName();
-                        String crawlDate = inDir.toFile().getName();
-                        ExtractData data = new ExtractData();
-                        data.id = id;
-                        data.source = source;
-                        data.category = category;
-                        data.title = title;
-                        data.labels = labels;
-                        data.crawlDate = crawlDate;
-                        data.text = text;
-                        extractDataList.add(data);
-                        count++;
-                    } catch (Exception aex) {
-                        aex.printStackTrace();
-                        System.err.println("Exception in file " + inFile);
                     }
                 }
-                Log.info("Processed %d from %s in %.1f seconds. (ThreadID=%d)",
-                        block.size(),
-                        inDir,
-                        (sw.elapsed(TimeUnit.MILLISECONDS) - st) / 1000f,
-                        Thread.currentThread().getId());
-            }
-
-            Log.info("Saving to file %s", outFile);
-            try (PrintWriter pw = new PrintWriter(
-                    new BufferedOutputStream(new FileOutputStream(outFile.toFile()), 10_000_000))) {
-                for (ExtractData data : extractDataList) {
-                    pw.println("<doc id=\"" + TextUtil.escapeQuotesApostrpohes(data.id)
-                            + "\" source=\"" + TextUtil.escapeQuotesApostrpohes(data.source)
-                            + "\" title=\"" + TextUtil.escapeQuotesApostrpohes(data.title)
-                            + "\" labels=\"" + TextUtil.escapeQuotesApostrpohes(String.join(",", data.labels))
-                            + "\" category=\"" + TextUtil.escapeQuotesApostrpohes(data.category)
-                            + "\" crawl-date=\"" + data.crawlDate + "\">");
-                    pw.println(data.text.trim());
-                    pw.println("</doc>");
+                if (pw.checkError()) {
+                    throw new IOException("Error while writing to " + tmpFile);
                 }
-                Log.info("%s completed in %.1f seconds. There are %d files. %s used. (ThreadID=%d)",
-                        inDir,
-                        sw.elapsed(TimeUnit.MILLISECONDS) / 1000f,
-                        count,
-                        extractType,
-                        Thread.currentThread().getId());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return null;
+            }
 
+            // manifest is saved first. If we crash before the output is moved, output file does not have the size
+            // in the manifest, so next run extracts the day again instead of taking the old output as complete.
+            try {
+                manifest.outputSize = Files.size(tmpFile);
+                manifest.save(manifestFile);
+                Files.move(tmpFile, outFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             } catch (IOException ex) {
                 ex.printStackTrace();
+                return null;
             }
+
+            Log.info("%s completed in %.1f seconds. There are %d files. %s used. (ThreadID=%d)",
+                    day,
+                    sw.elapsed(TimeUnit.MILLISECONDS) / 1000f,
+                    count,
+                    extractType,
+                    Thread.currentThread().getId());
             return outFile;
         }
 
-        private List<Path> getPaths() {
-            List<Path> paths = new ArrayList<>(5000);
-            int ignoredCount = 0;
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(inDir)) {
-                for (Path inFile : ds) {
-                    if (inFile.toFile().isDirectory()) {
-                        Log.warn("%s is a directory. Ignoring.", inFile);
+        static Path manifestFile(Path outFile) {
+            return outFile.resolveSibling(WORK_DIR).resolve(outFile.toFile().getName() + ".manifest");
+        }
+
+        // returns the manifest of previous extraction if output file is consistent with it. Otherwise null.
+        private DayManifest previousManifest(Path manifestFile) throws IOException {
+            if (Files.notExists(outFile)) {
+                return null;
+            }
+            DayManifest manifest = DayManifest.load(manifestFile);
+            if (manifest == null) {
+                return null;
+            }
+            long size = Files.size(outFile);
+            if (size != manifest.outputSize) {
+                Log.warn("%s does not have the size in manifest. Extracting all again.", outFile);
+                return null;
+            }
+            return manifest;
+        }
+
+        private static void copyPrefix(Path from, Path to, long length) throws IOException {
+            try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(to,
+                         StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                while (position < length) {
+                    position += in.transferTo(position, length - position, out);
+                }
+            }
+        }
+
+        // extracts a loaded block and releases it.
+        private List<ExtractData> process(BlockLoader.Block block) {
+            Stopwatch sw = Stopwatch.createStarted();
+            List<ExtractData> extractDataList;
+            try {
+                extractDataList = extract(block.contents);
+            } finally {
+                loader.release(block);
+            }
+            Log.info("Processed %d from %s in %.1f seconds. (ThreadID=%d)",
+                    block.size(),
+                    day,
+                    sw.elapsed(TimeUnit.MILLISECONDS) / 1000f,
+                    Thread.currentThread().getId());
+            return extractDataList;
+        }
+
+        private List<ExtractData> extract(List<FileContent> contents) {
+            List<ExtractData> extractDataList = new ArrayList<>(contents.size());
+            String cacheSettings = cache == null ? null : cacheSettings();
+            for (FileContent fileContent : contents) {
+                CrawlDay.Page page = fileContent.page;
+                if (pageBudget.isTooLarge(fileContent.content.length)) {
+                    Log.warn("%s of %s has %d bytes. Skipping.", page, day, fileContent.content.length);
+                    Metrics.quarantine(day.source, page.name, "size=" + fileContent.content.length);
+                    extractDataList.add(ExtractData.notExtracted(page, DayManifest.Status.SKIPPED));
+                    continue;
+                }
+                PageBudget.Guard guard = pageBudget.start();
+                try {
+                    ExtractData data = null;
+                    String cacheKey = null;
+                    if (cache != null) {
+                        cacheKey = cache.key(cacheSettings, fileContent.content);
+                        data = cache.get(cacheKey, day.source);
+                    }
+                    if (data == null) {
+                        data = extract(fileContent.content, guard);
+                        if (cache != null) {
+                            cache.put(cacheKey, data);
+                        }
+                    }
+                    data.id = URLDecoder.decode(page.name, "utf-8");
+                    data.page = page;
+                    data.source = day.source;
+                    data.crawlDate = day.date;
+                    extractDataList.add(data);
+                    Metrics.PAGES.increment(day.source);
+                } catch (Exception aex) {
+                    if (guard.exceeded()) {
+                        Log.warn("%s of %s could not be processed in %d ms. Skipping.",
+                                page, day, pageBudget.maxMillis);
+                        Metrics.quarantine(day.source, page.name, "time>" + pageBudget.maxMillis + "ms");
+                        extractDataList.add(ExtractData.notExtracted(page, DayManifest.Status.SKIPPED));
                         continue;
                     }
-                    String url = inFile.toFile().getName();
+                    aex.printStackTrace();
+                    System.err.println("Exception in file " + page + " of " + day);
+                    extractDataList.add(ExtractData.notExtracted(page, DayManifest.Status.FAILED));
+                }
+            }
+            return extractDataList;
+        }
+
+        // everything other than page content that effects the extraction result.
+        private String cacheSettings() {
+            StringBuilder sb = new StringBuilder(extractType)
+                    .append("|").append(EXTRACTION_VERSION)
+                    .append("|").append(PooledBoilerpipe.BUILD)
+                    .append("|").append(normalizer.fingerprint());
+            if (extractMetaData && patterns != null) {
+                sb.append("|").append(patterns.labelPattern)
+                        .append("|").append(patterns.categoryPattern)
+                        .append("|").append(patterns.titlePattern);
+            }
+            return sb.toString();
+        }
+
+        private ExtractData extract(byte[] content, PageBudget.Guard guard)
+                throws BoilerpipeProcessingException, IOException {
+            if (extractMetaData && patterns != null) {
+                return extractWithMetaData(new String(content, StandardCharsets.UTF_8), guard);
+            }
+            // page is decoded and normalized while the parser reads it, without intermediate strings.
+            long start = System.nanoTime();
+            Reader reader = guard.wrap(normalizer.reader(content));
+            Metrics.NORMALIZE.record(day.source, System.nanoTime() - start);
+
+            ExtractData data = new ExtractData();
+            data.category = "";
+            data.title = "";
+            data.labels = Collections.emptyList();
+            data.text = getText(reader);
+            return data;
+        }
+
+        private ExtractData extractWithMetaData(String text, PageBudget.Guard guard)
+                throws BoilerpipeProcessingException, IOException {
+            // metadata patterns may need the head section, so it is replaced after they are applied.
+            long start = System.nanoTime();
+            text = normalizer.mapChars(text);
+            long normalizeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Matcher[] matches = metadataFinder.find(guard.wrap(text));
+            List<String> labels = extractLabels(group(matches[0]));
+            String category = extractCategory(group(matches[1]));
+            String title = extractTitle(group(matches[2]));
+            Metrics.METADATA.record(day.source, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            text = normalizer.replaceHead(text);
+            normalizeTime += System.nanoTime() - start;
+            Metrics.NORMALIZE.record(day.source, normalizeTime);
+
+            ExtractData data = new ExtractData();
+            data.category = category;
+            data.title = title;
+            data.labels = labels;
+            data.text = getText(guard.wrap(new StringReader(text)));
+            return data;
+        }
+
+        private String getText(Reader reader) throws BoilerpipeProcessingException, IOException {
+            long start = System.nanoTime();
+            String text;
+            if (extractType == null || extractType.equals("ARTICLE")) {
+                text = PooledBoilerpipe.ARTICLE.getText(reader);
+            } else if (extractType.equals("EVERYTHING")) {
+                text = PooledBoilerpipe.EVERYTHING.getText(reader);
+            } else {
+                text = CharStreams.toString(reader);
+            }
+            Metrics.BOILERPIPE.record(day.source, System.nanoTime() - start);
+            return text;
+        }
+
+        // pages are added to the manifest with their status. Skipped and failed pages are not written, they are
+        // tried again only if their files change. Returns the number of written pages.
+        private int write(PrintWriter pw, List<ExtractData> extractDataList, DayManifest manifest) {
+            long start = System.nanoTime();
+            int count = 0;
+            for (ExtractData data : extractDataList) {
+                if (data.status == DayManifest.Status.EXTRACTED) {
+                    write(pw, data);
+                    count++;
+                }
+                manifest.add(DayManifest.Entry.of(data.page, data.status));
+            }
+            pw.flush();
+            Metrics.WRITE.record(day.source, System.nanoTime() - start);
+            return count;
+        }
+
+        private void write(PrintWriter pw, ExtractData data) {
+            pw.println("<doc id=\"" + TextUtil.escapeQuotesApostrpohes(data.id)
+                    + "\" source=\"" + TextUtil.escapeQuotesApostrpohes(data.source)
+                    + "\" title=\"" + TextUtil.escapeQuotesApostrpohes(data.title)
+                    + "\" labels=\"" + TextUtil.escapeQuotesApostrpohes(String.join(",", data.labels))
+                    + "\" category=\"" + TextUtil.escapeQuotesApostrpohes(data.category)
+                    + "\" crawl-date=\"" + data.crawlDate + "\">");
+            pw.println(data.text.trim());
+            pw.println("</doc>");
+        }
+
+        private List<CrawlDay.Page> getPages() {
+            List<CrawlDay.Page> pages = new ArrayList<>(5000);
+            int ignoredCount = 0;
+            try {
+                for (CrawlDay.Page page : day.pages()) {
+                    String url = page.name;
                     try {
                         url = URLDecoder.decode(url, "UTF-8");
                     } catch (Exception e) {
                         Log.warn("Cannot decode URL %s ", url);
                         continue;
                     }
-                    boolean ignore = false;
-                    if (patterns != null) {
-                        for (Pattern p : patterns.getUrlRemovePatterns()) {
-                            if (Regexps.matchesAny(p, url)) {
-                                ignore = true;
-                                break;
-                            }
-                        }
-                    }
-                    if (!ignore) {
-                        paths.add(inFile);
+                    if (patterns == null || patterns.isUrlAccepted(url)) {
+                        pages.add(page);
                     } else {
                         ignoredCount++;
                     }
@@ -336,18 +698,23 @@ public class Extractor {
                 System.err.println(e.toString());
                 return null;
             }
-            Log.info("There are %d files to process in %s. %d ignored. ", paths.size(), inDir, ignoredCount);
-            return paths;
+            Log.info("There are %d files to process in %s. %d ignored. ", pages.size(), day, ignoredCount);
+            return pages;
         }
 
         static Pattern labelSplitPattern = Pattern.compile("<.+?>|[,]");
         static Pattern labelSplitPatternHref = Pattern.compile("(?:<a href.+?>\\s?+)(.+?)(?:</a>)");
 
-        private List<String> extractLabels(String text, Pattern pattern) {
-            String labelChunk = Regexps.firstMatch(pattern, text, 2).replaceAll("[\n\r]+", " ");
+        // metadata patterns are in (prefix)(value)(suffix) form.
+        private static String group(Matcher matcher) {
+            return matcher == null ? null : matcher.group(2);
+        }
+
+        private List<String> extractLabels(String labelChunk) {
             if (labelChunk == null || labelChunk.trim().length() == 0) {
                 return Collections.emptyList();
             }
+            labelChunk = labelChunk.replaceAll("[\n\r]+", " ");
             labelChunk = TextUtil.convertAmpersandStrings(labelChunk);
             List<String> labels;
             if (labelChunk.contains("<a href")) {
@@ -362,16 +729,14 @@ public class Extractor {
             return labels;
         }
 
-        private String extractCategory(String text, Pattern pattern) {
-            String category = Regexps.firstMatch(pattern, text, 2);
+        private String extractCategory(String category) {
             if (category == null) {
                 return "";
             }
             return TextUtil.convertAmpersandStrings(category);
         }
 
-        private String extractTitle(String text, Pattern pattern) {
-            String title = Regexps.firstMatch(pattern, text, 2);
+        private String extractTitle(String title) {
             if (title == null) {
                 return "";
             }
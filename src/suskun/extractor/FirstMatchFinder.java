@@ -0,0 +1,150 @@
+package suskun.extractor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first match of several patterns in a text. Result is the same as calling find() on a matcher of each
+ * pattern. Most patterns start with a literal like "&lt;title&gt;". Locations of these literals are found with a single
+ * Aho-Corasick scan, then each pattern is searched starting from the first occurrence of its literal. If the
+ * literal does not occur at all, pattern is not searched. So for patterns with literal prefixes the text is scanned
+ * once instead of once per pattern. Patterns without a literal prefix are searched from the start.
+ */
+class FirstMatchFinder {
+
+    private final Pattern[] patterns;
+    // index of the prefix of each pattern in the automaton, -1 if pattern has no literal prefix.
+    private final int[] prefixIndexes;
+    private final AhoCorasick prefixes;
+
+    /**
+     * Null patterns are allowed, they never match.
+     */
+    FirstMatchFinder(List<Pattern> patternList) {
+        this.patterns = patternList.toArray(new Pattern[0]);
+        this.prefixIndexes = new int[patterns.length];
+        Map<String, Integer> prefixMap = new LinkedHashMap<>();
+        for (int i = 0; i < patterns.length; i++) {
+            String prefix = patterns[i] == null ? "" : literalPrefix(patterns[i]);
+            if (prefix.isEmpty()) {
+                prefixIndexes[i] = -1;
+            } else {
+                prefixIndexes[i] = prefixMap.computeIfAbsent(prefix, k -> prefixMap.size());
+            }
+        }
+        this.prefixes = prefixMap.isEmpty() ? null : new AhoCorasick(new ArrayList<>(prefixMap.keySet()));
+    }
+
+    /**
+     * Returns a matcher positioned at the first match for each pattern, or null if pattern is not found.
+     */
+    Matcher[] find(CharSequence text) {
+        int[] positions = prefixes == null ? null : prefixes.firstOccurrences(text);
+        Matcher[] result = new Matcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i] == null) {
+                continue;
+            }
+            int from = 0;
+            if (prefixIndexes[i] >= 0) {
+                from = positions[prefixIndexes[i]];
+                if (from < 0) {
+                    continue;
+                }
+            }
+            Matcher matcher = patterns[i].matcher(text);
+            // no match can start before the first occurrence of the prefix.
+            if (matcher.find(from)) {
+                result[i] = matcher;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the literal string that all matches of the pattern start with. Capturing groups at the start are
+     * entered. Returns empty string if pattern has alternations, flags other than DOTALL and MULTILINE or if it
+     * does not start with a literal.
+     */
+    static String literalPrefix(Pattern pattern) {
+        String regex = pattern.pattern();
+        if ((pattern.flags() & ~(Pattern.DOTALL | Pattern.MULTILINE)) != 0 || regex.indexOf('|') >= 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            char literal;
+            if (c == '(') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+                    break;
+                }
+                // group can be skipped if it is optional.
+                int close = closingParenthesis(regex, i);
+                if (close < 0 || (close + 1 < regex.length() && "?*{".indexOf(regex.charAt(close + 1)) >= 0)) {
+                    break;
+                }
+                i++;
+                continue;
+            } else if (c == ')') {
+                // a quantifier may repeat or skip the whole group.
+                break;
+            } else if (c == '\\') {
+                if (i + 1 == regex.length()) {
+                    break;
+                }
+                char next = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(next) || next > 127) {
+                    break;
+                }
+                literal = next;
+                i += 2;
+            } else if ("^$.[]{}?*+".indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                i++;
+            }
+            if (i < regex.length() && "?*{".indexOf(regex.charAt(i)) >= 0) {
+                // char is optional.
+                break;
+            }
+            sb.append(literal);
+            if (i < regex.length() && regex.charAt(i) == '+') {
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    // returns index of the parenthesis that closes the group that starts at [open], -1 if not found.
+    private static int closingParenthesis(String regex, int open) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = open; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                }
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+}
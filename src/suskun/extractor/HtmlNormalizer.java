@@ -0,0 +1,323 @@
+package suskun.extractor;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Prepares raw html for boilerpipe in a single pass. It maps unwanted characters (like no-break space) to
+ * replacements and replaces the head section with a fixed UTF-8 charset meta tag. Result is the same with
+ * <pre>
+ * text = text.replaceAll("\\u00a0", " ");
+ * text = Pattern.compile("&lt;head&gt;.*&lt;/head&gt;", DOTALL | CASE_INSENSITIVE).matcher(text).replaceAll(HEAD);
+ * </pre>
+ * If nothing needs to be changed, input string is returned without any allocation.
+ * <p>
+ * For UTF-8 page bytes, {@link #reader(byte[])} gives the same result as a Reader that decodes the page while
+ * it is read.
+ */
+public class HtmlNormalizer {
+
+    static final String HEAD_REPLACEMENT = "<head><meta charset=\"UTF-8\"></head>";
+
+    private static final char[] HEAD_START = "<head>".toCharArray();
+    private static final char[] HEAD_END = "</head>".toCharArray();
+
+    private static final char[] IDENTITY = new char[Character.MAX_VALUE + 1];
+
+    static {
+        for (int i = 0; i < IDENTITY.length; i++) {
+            IDENTITY[i] = (char) i;
+        }
+    }
+
+    //TODO: add more evil chars
+    public static final HtmlNormalizer DEFAULT = new HtmlNormalizer(evilChars('\u00a0', ' '));
+
+    // char -> replacement lookup. Unmapped chars map to themselves.
+    private final char[] charMap = IDENTITY.clone();
+
+    // true if head tags can be searched in raw bytes. This is not possible if mapping changes ascii chars
+    // or generates chars of head tags.
+    private final boolean byteHeadSearch;
+    // char mappings and head replacement, see fingerprint()
+    private final String fingerprint;
+
+    public HtmlNormalizer(Map<Character, Character> evilChars) {
+        boolean asciiSafe = true;
+        for (Map.Entry<Character, Character> entry : evilChars.entrySet()) {
+            char from = entry.getKey();
+            char to = entry.getValue();
+            charMap[from] = to;
+            if (from != to && (from < 128 || isTagChar(to))) {
+                asciiSafe = false;
+            }
+        }
+        this.byteHeadSearch = asciiSafe;
+        StringBuilder sb = new StringBuilder();
+        for (char from : new TreeSet<>(evilChars.keySet())) {
+            if (from != evilChars.get(from)) {
+                sb.append(String.format("%04x>%04x,", (int) from, (int) evilChars.get(from)));
+            }
+        }
+        this.fingerprint = sb.append(HEAD_REPLACEMENT).toString();
+    }
+
+    /**
+     * Returns a string that is the same for two normalizers only if they give the same results. Used for keys of
+     * cached results that are generated from normalized pages.
+     */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    private static boolean isTagChar(char c) {
+        return "</head>".indexOf(Character.toLowerCase(c)) >= 0;
+    }
+
+    /**
+     * Generates a mapping from [from, to, from, to ...] char pairs.
+     */
+    public static Map<Character, Character> evilChars(char... fromTo) {
+        if (fromTo.length % 2 != 0) {
+            throw new IllegalArgumentException("Mappings must be given as pairs. " + Arrays.toString(fromTo));
+        }
+        Map<Character, Character> map = new HashMap<>();
+        for (int i = 0; i < fromTo.length; i += 2) {
+            map.put(fromTo[i], fromTo[i + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * Maps evil chars and replaces the head section.
+     */
+    public String normalize(String html) {
+        return process(html, true, true);
+    }
+
+    /**
+     * Only maps evil chars.
+     */
+    public String mapChars(String html) {
+        return process(html, true, false);
+    }
+
+    /**
+     * Only replaces the head section.
+     */
+    public String replaceHead(String html) {
+        return process(html, false, true);
+    }
+
+    private String process(String in, boolean mapChars, boolean replaceHead) {
+
+        final int len = in.length();
+        final char[] map = mapChars ? charMap : IDENTITY;
+        // output is only generated after the first change. Mapping is char to char so indexes do not shift.
+        StringBuilder sb = null;
+        int headStart = -1;
+        int headEnd = -1;
+
+        for (int i = 0; i < len; i++) {
+            char c = in.charAt(i);
+            char m = map[c];
+            if (m != c && sb == null) {
+                sb = new StringBuilder(len + HEAD_REPLACEMENT.length());
+                sb.append(in, 0, i);
+            }
+            if (sb != null) {
+                sb.append(m);
+            }
+            if (replaceHead && m == '<') {
+                if (headStart < 0) {
+                    if (matchesTag(in, i, HEAD_START, map)) {
+                        headStart = i;
+                    }
+                } else if (i >= headStart + HEAD_START.length && matchesTag(in, i, HEAD_END, map)) {
+                    // greedy, last closing tag wins.
+                    headEnd = i + HEAD_END.length;
+                }
+            }
+        }
+
+        boolean headFound = headStart >= 0 && headEnd > 0;
+        if (sb == null) {
+            if (!headFound) {
+                return in;
+            }
+            return new StringBuilder(len - (headEnd - headStart) + HEAD_REPLACEMENT.length())
+                    .append(in, 0, headStart)
+                    .append(HEAD_REPLACEMENT)
+                    .append(in, headEnd, len)
+                    .toString();
+        }
+        if (headFound) {
+            sb.replace(headStart, headEnd, HEAD_REPLACEMENT);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a reader that gives the same characters as normalize(new String(utf8, UTF_8)). Page is decoded
+     * directly into the buffers of the caller while it is read, so no intermediate String is generated.
+     */
+    public Reader reader(byte[] utf8) {
+        if (!byteHeadSearch) {
+            return new StringReader(normalize(new String(utf8, StandardCharsets.UTF_8)));
+        }
+        int headStart = -1;
+        int headEnd = -1;
+        for (int i = 0; i < utf8.length; i++) {
+            if (utf8[i] == '<' && matchesTag(utf8, i, HEAD_START)) {
+                headStart = i;
+                break;
+            }
+        }
+        if (headStart >= 0) {
+            // greedy, last closing tag wins.
+            for (int i = utf8.length - HEAD_END.length; i >= headStart + HEAD_START.length; i--) {
+                if (utf8[i] == '<' && matchesTag(utf8, i, HEAD_END)) {
+                    headEnd = i + HEAD_END.length;
+                    break;
+                }
+            }
+        }
+        return headEnd < 0 ? new PageReader(utf8, -1, -1) : new PageReader(utf8, headStart, headEnd);
+    }
+
+    private static boolean matchesTag(byte[] in, int start, char[] tag) {
+        if (start + tag.length > in.length) {
+            return false;
+        }
+        for (int j = 0; j < tag.length; j++) {
+            int c = in[start + j];
+            char t = tag[j];
+            if (c != t && !(t >= 'a' && t <= 'z' && c == t - 32)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes [0..headStart) of the page, then gives the head replacement, then decodes [headEnd..end).
+     * Evil chars are mapped in the decoded parts. If there is no head section, whole page is decoded.
+     */
+    private final class PageReader extends Reader {
+
+        private static final int BEFORE_HEAD = 0, HEAD = 1, AFTER_HEAD = 2, FINISHED = 3;
+
+        private final int headEnd;
+        private final boolean hasHead;
+        private final ByteBuffer in;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private int state = BEFORE_HEAD;
+        // true when all bytes of the current part are decoded.
+        private boolean partDecoded;
+        private int replacementIndex;
+        // second char of a surrogate pair that did not fit into a single char read.
+        private int pending = -1;
+
+        PageReader(byte[] bytes, int headStart, int headEnd) {
+            this.headEnd = headEnd;
+            this.hasHead = headStart >= 0;
+            this.in = ByteBuffer.wrap(bytes, 0, hasHead ? headStart : bytes.length);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pending >= 0) {
+                cbuf[off] = (char) pending;
+                pending = -1;
+                return 1;
+            }
+            while (true) {
+                switch (state) {
+                    case BEFORE_HEAD:
+                    case AFTER_HEAD:
+                        if (!partDecoded) {
+                            int n = decode(cbuf, off, len);
+                            if (n > 0) {
+                                return n;
+                            }
+                        }
+                        state = state == BEFORE_HEAD && hasHead ? HEAD : FINISHED;
+                        break;
+                    case HEAD:
+                        int count = Math.min(len, HEAD_REPLACEMENT.length() - replacementIndex);
+                        HEAD_REPLACEMENT.getChars(replacementIndex, replacementIndex + count, cbuf, off);
+                        replacementIndex += count;
+                        if (replacementIndex == HEAD_REPLACEMENT.length()) {
+                            state = AFTER_HEAD;
+                            partDecoded = false;
+                            decoder.reset();
+                            in.limit(in.capacity()).position(headEnd);
+                        }
+                        return count;
+                    default:
+                        return -1;
+                }
+            }
+        }
+
+        // decodes the current part into the buffer and maps chars. Returns 0 only if the part is finished.
+        private int decode(char[] cbuf, int off, int len) {
+            if (len == 1) {
+                // a surrogate pair does not fit.
+                char[] two = new char[2];
+                int n = decode(two, 0, 2);
+                if (n == 2) {
+                    pending = two[1];
+                }
+                cbuf[off] = two[0];
+                return n == 0 ? 0 : 1;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            CoderResult result = decoder.decode(in, out, true);
+            if (result.isUnderflow()) {
+                decoder.flush(out);
+                partDecoded = true;
+            }
+            int n = out.position() - off;
+            for (int i = off; i < off + n; i++) {
+                cbuf[i] = charMap[cbuf[i]];
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            state = FINISHED;
+        }
+    }
+
+    // ascii case insensitive match of a lowercase tag, after mapping.
+    private static boolean matchesTag(CharSequence in, int start, char[] tag, char[] map) {
+        if (start + tag.length > in.length()) {
+            return false;
+        }
+        for (int j = 0; j < tag.length; j++) {
+            char c = map[in.charAt(start + j)];
+            char t = tag[j];
+            if (c != t && !(t >= 'a' && t <= 'z' && c == t - 32)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package suskun.extractor;
+
+import zemberek.core.logging.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Differential check of HtmlNormalizer against the regular expression chain it replaces. Pages of a crawl day
+ * folder are normalized with both and the check fails on the first page with a different result. If no folder
+ * is given, generated pages with non breaking spaces and a head section are used.
+ * <pre>
+ * java suskun.extractor.HtmlNormalizerCheck [crawl day folder]
+ * </pre>
+ */
+public class HtmlNormalizerCheck {
+
+    private static final Pattern HEAD_PATTERN =
+            Pattern.compile("<head>.*</head>", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+    public static void main(String[] args) throws IOException {
+        int pageCount = 0;
+        if (args.length > 0) {
+            Path dayDir = Paths.get(args[0]);
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dayDir)) {
+                for (Path path : ds) {
+                    if (path.toFile().isFile()) {
+                        check(path.toString(), new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+                        pageCount++;
+                    }
+                }
+            }
+            if (pageCount == 0) {
+                throw new IllegalStateException("There are no pages in " + dayDir);
+            }
+        } else {
+            Random random = new Random(1);
+            for (; pageCount < 2000; pageCount++) {
+                check("generated page " + pageCount, generatePage(random, pageCount));
+            }
+        }
+        Log.info("%d pages are normalized the same.", pageCount);
+    }
+
+    /**
+     * Normalization as it was done before HtmlNormalizer.
+     */
+    static String regexChain(String page) {
+        String text = page.replaceAll("\\u00a0", " ");
+        return HEAD_PATTERN.matcher(text).replaceAll(HtmlNormalizer.HEAD_REPLACEMENT);
+    }
+
+    private static void check(String name, String page) {
+        String expected = regexChain(page);
+        String actual = HtmlNormalizer.DEFAULT.normalize(page);
+        if (!expected.equals(actual)) {
+            int i = 0;
+            while (i < expected.length() && i < actual.length() && expected.charAt(i) == actual.charAt(i)) {
+                i++;
+            }
+            throw new IllegalStateException(String.format(
+                    "HtmlNormalizer output is different for %s at character %d%nExpected : [%s]%nActual   : [%s]",
+                    name, i, excerpt(expected, i), excerpt(actual, i)));
+        }
+    }
+
+    private static String excerpt(String s, int index) {
+        return s.substring(Math.max(0, index - 40), Math.min(s.length(), index + 40));
+    }
+
+    private static String generatePage(Random random, int i) {
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html><HEAD><title>Haber ").append(i);
+        sb.append("</title><script>var x = '<div>';</script></head>\n<body>");
+        int paragraphs = i % 100 == 0 ? 5000 : 10 + random.nextInt(100);
+        for (int j = 0; j < paragraphs; j++) {
+            sb.append("<p>Bugün açıklama yapan başkan ").append(random.nextInt())
+                    .append(j % 3 == 0 ? " kişinin\u00a0katıldığı" : " kişinin katıldığı")
+                    .append(" toplantıda konuştu.</p>\n");
+        }
+        sb.append("</body></html>");
+        return sb.toString();
+    }
+}
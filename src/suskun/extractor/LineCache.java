@@ -0,0 +1,129 @@
+package suskun.extractor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Size bounded, thread safe memoization of per line computations. Most lines of a source are repeated template
+ * text, so their normalized forms and verdicts can be reused. Entries are split into shards by key hash, each
+ * shard has its own lock. When a shard is full, an entry is evicted with a clock that decrements use counts, so
+ * lines that are seen often stay and lines seen once are evicted first.
+ * <p>
+ * Keys are usually the lines themselves, a cached value is only returned for an equal key. A cache can be shared
+ * by computations that also depend on something else, such as rules of a source, if keys contain it. Each cache
+ * holds at most maxSize entries. Hits and misses are counted in Metrics as [name]-cache-hits and
+ * [name]-cache-misses.
+ * <pre>
+ * LineCache&lt;String, String&gt; cache = new LineCache&lt;&gt;("normalize", 100_000);
+ * String normalized = cache.get(line, LineNormalizer::cleanAndSeparate);
+ * </pre>
+ */
+class LineCache<K, V> {
+
+    /**
+     * Size of each line cache, given with system property suskun.lineCacheSize. Caches are not used if it is 0.
+     */
+    static final int SIZE = Integer.getInteger("suskun.lineCacheSize", 0);
+
+    private static final int SHARD_COUNT = 16;
+    // use count is not incremented beyond this, so that an entry that was frequent once can be evicted eventually.
+    private static final int MAX_USE_COUNT = 7;
+
+    private final Shard<K, V>[] shards;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+
+    LineCache(String name, int maxSize) {
+        if (maxSize < SHARD_COUNT) {
+            throw new IllegalArgumentException("Cache size must be at least " + SHARD_COUNT + " but it is " + maxSize);
+        }
+        @SuppressWarnings("unchecked")
+        Shard<K, V>[] shards = (Shard<K, V>[]) new Shard<?, ?>[SHARD_COUNT];
+        this.shards = shards;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard<>(maxSize / SHARD_COUNT);
+        }
+        hits = Metrics.counter(name + "-cache-hits");
+        misses = Metrics.counter(name + "-cache-misses");
+    }
+
+    private static class Entry<K, V> {
+        final K key;
+        final V value;
+        int useCount;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static class Shard<K, V> {
+        final Map<K, Entry<K, V>> map;
+        // entries in insertion slots, clock hand moves over them.
+        final Entry<K, V>[] slots;
+        int size;
+        int hand;
+
+        Shard(int capacity) {
+            map = new HashMap<>(capacity * 2);
+            @SuppressWarnings("unchecked")
+            Entry<K, V>[] slots = (Entry<K, V>[]) new Entry<?, ?>[capacity];
+            this.slots = slots;
+        }
+
+        synchronized V get(K key) {
+            Entry<K, V> entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.useCount < MAX_USE_COUNT) {
+                entry.useCount++;
+            }
+            return entry.value;
+        }
+
+        synchronized void put(K key, V value) {
+            if (map.containsKey(key)) {
+                return;
+            }
+            Entry<K, V> entry = new Entry<>(key, value);
+            if (size < slots.length) {
+                slots[size++] = entry;
+            } else {
+                // an entry is evicted when the hand finds it with zero uses, others lose one use as hand passes.
+                while (slots[hand].useCount > 0) {
+                    slots[hand].useCount--;
+                    hand = (hand + 1) % slots.length;
+                }
+                map.remove(slots[hand].key);
+                slots[hand] = entry;
+                hand = (hand + 1) % slots.length;
+            }
+            map.put(key, entry);
+        }
+    }
+
+    private Shard<K, V> shard(K key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARD_COUNT - 1)];
+    }
+
+    /**
+     * Returns the cached value of the key. If there is none, computes it and adds it to the cache.
+     * Values are computed outside of locks, so a value may be computed more than once by different threads.
+     */
+    V get(K key, Function<K, V> function) {
+        Shard<K, V> shard = shard(key);
+        V value = shard.get(key);
+        if (value != null) {
+            hits.increment(null);
+            return value;
+        }
+        misses.increment(null);
+        value = function.apply(key);
+        shard.put(key, value);
+        return value;
+    }
+}
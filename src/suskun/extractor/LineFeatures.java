@@ -0,0 +1,198 @@
+package suskun.extractor;
+
+import java.util.Arrays;
+
+/**
+ * Character and token statistics of a line for the quality filters of ContentPatterns, collected with a single
+ * scan. Ratios and decisions are the same as ContentPatterns.digitRatio, capitalRatio, badlyTypedTurkish and
+ * the repetition ratio of space separated tokens. An instance is reused for every line of a thread, so scanning
+ * does not allocate after the token table grows to the longest line.
+ * <pre>
+ * LineFeatures features = LineFeatures.scan(line);
+ * if (features.digitRatio() > 0.2) ...
+ * </pre>
+ */
+class LineFeatures {
+
+    private static final ThreadLocal<LineFeatures> FEATURES = ThreadLocal.withInitial(LineFeatures::new);
+
+    // tokens are only counted for lines longer than this, shorter lines are not checked for repetition.
+    static final int MIN_REPETITION_CHECK_LENGTH = 50;
+    // larger token tables of very long lines are not kept for the next line.
+    private static final int MAX_KEPT_TABLE_SIZE = 1 << 16;
+
+    private String line;
+    private int length;
+    private boolean blank;
+    private int digits;
+    private int capitals;
+    private int dotlessI;
+    private int smallI;
+    // chars of "[çğıöşüÇŞĞÜÖİ]", brackets included, as ContentPatterns.badlyTypedTurkish counts them.
+    private int turkishChars;
+    // brackets excluded.
+    private boolean hasTurkishLetter;
+    private int tokens;
+    private int distinctTokens;
+
+    // open addressing table of distinct tokens. Only first tableSize slots are used for current line.
+    private int[] tokenStarts = new int[128];
+    private int[] tokenEnds = new int[128];
+    private int[] tokenHashes = new int[128];
+    private int tableSize;
+
+    /**
+     * Scans the line with the instance of current thread. Result is valid until next call in the same thread.
+     */
+    static LineFeatures scan(String line) {
+        LineFeatures features = FEATURES.get();
+        features.reset(line);
+        return features;
+    }
+
+    private void reset(String s) {
+        line = s;
+        length = s.length();
+        blank = true;
+        digits = 0;
+        capitals = 0;
+        dotlessI = 0;
+        smallI = 0;
+        turkishChars = 0;
+        hasTurkishLetter = false;
+        tokens = 0;
+        distinctTokens = 0;
+
+        boolean countTokens = length > MIN_REPETITION_CHECK_LENGTH;
+        if (countTokens) {
+            // a line of n chars has at most n + 1 tokens.
+            prepareTable(length + 1);
+        }
+        int tokenStart = 0;
+        int tokenHash = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c > ' ') {
+                blank = false;
+            }
+            if (c < 128) {
+                if (c >= '0' && c <= '9') {
+                    digits++;
+                } else if (c >= 'A' && c <= 'Z') {
+                    capitals++;
+                } else if (c == 'i') {
+                    smallI++;
+                } else if (c == '[' || c == ']') {
+                    turkishChars++;
+                }
+            } else {
+                if (Character.isDigit(c)) {
+                    digits++;
+                } else if (Character.isUpperCase(c)) {
+                    capitals++;
+                }
+                switch (c) {
+                    case 'ı':
+                    case 'ç':
+                    case 'ğ':
+                    case 'ö':
+                    case 'ş':
+                    case 'ü':
+                    case 'Ç':
+                    case 'Ş':
+                    case 'Ğ':
+                    case 'Ü':
+                    case 'Ö':
+                    case 'İ':
+                        turkishChars++;
+                        hasTurkishLetter = true;
+                        if (c == 'ı') {
+                            dotlessI++;
+                        }
+                }
+            }
+            if (countTokens) {
+                if (c == ' ') {
+                    addToken(tokenStart, i, tokenHash);
+                    tokenStart = i + 1;
+                    tokenHash = 0;
+                } else {
+                    tokenHash = 31 * tokenHash + c;
+                }
+            }
+        }
+        if (countTokens) {
+            addToken(tokenStart, length, tokenHash);
+            if (tokenEnds.length > MAX_KEPT_TABLE_SIZE) {
+                tokenStarts = new int[128];
+                tokenEnds = new int[128];
+                tokenHashes = new int[128];
+            }
+        }
+    }
+
+    private void prepareTable(int maxTokens) {
+        int size = 128;
+        while (size < maxTokens * 2) {
+            size *= 2;
+        }
+        if (size > tokenEnds.length) {
+            tokenStarts = new int[size];
+            tokenEnds = new int[size];
+            tokenHashes = new int[size];
+        } else {
+            Arrays.fill(tokenEnds, 0, size, 0);
+        }
+        tableSize = size;
+    }
+
+    // ends are stored plus one, so that an empty slot can be told from an empty token at index 0.
+    private void addToken(int start, int end, int hash) {
+        tokens++;
+        int mask = tableSize - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (tokenEnds[slot] != 0) {
+            int otherStart = tokenStarts[slot];
+            int otherLength = tokenEnds[slot] - 1 - otherStart;
+            if (tokenHashes[slot] == hash && otherLength == end - start
+                    && line.regionMatches(otherStart, line, start, otherLength)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        tokenStarts[slot] = start;
+        tokenEnds[slot] = end + 1;
+        tokenHashes[slot] = hash;
+        distinctTokens++;
+    }
+
+    double digitRatio() {
+        return blank ? 0 : (digits * 1d) / length;
+    }
+
+    double capitalRatio() {
+        return blank ? 0 : (capitals * 1d) / length;
+    }
+
+    boolean badlyTypedTurkish() {
+        if (dotlessI > 0) {
+            if (smallI == 0 || ((double) smallI) / dotlessI < 0.2d)
+                return true;
+        }
+        if (!hasTurkishLetter) {
+            return true;
+        }
+        return ((double) turkishChars) / length < 0.05d;
+    }
+
+    /**
+     * Ratio of distinct space separated tokens to all tokens. Only available for lines longer than
+     * MIN_REPETITION_CHECK_LENGTH.
+     */
+    float repetitionRatio() {
+        if (length <= MIN_REPETITION_CHECK_LENGTH) {
+            throw new IllegalStateException("Tokens are not counted for short lines.");
+        }
+        return (distinctTokens * 1f) / tokens;
+    }
+}
@@ -0,0 +1,69 @@
+package suskun.extractor;
+
+import com.google.common.base.Splitter;
+import zemberek.core.logging.Log;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Differential check of LineFeatures against the ContentPatterns methods it replaces: digitRatio, capitalRatio,
+ * badlyTypedTurkish and the repetition ratio of space separated tokens. Random lines are made of characters and
+ * tokens that effect these values, the check fails on the first line with a different value.
+ * <pre>
+ * java suskun.extractor.LineFeaturesCheck [line count, default 2000000]
+ * </pre>
+ */
+public class LineFeaturesCheck {
+
+    // Turkish letters, brackets, digits of other scripts, spaces and tabs.
+    private static final String CHARS = " i ıIİçğöşüÇŞĞÜÖ[]aAbB09٣Ⅻ\t x  ";
+    private static final String[] TOKENS = {"bir", "iki", "", "bir", "ııı", "DOĞAN", "12", "gün", "[x]"};
+
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Random random = new Random(1);
+        for (int i = 0; i < lineCount; i++) {
+            check(line(random, i % 3 == 0 ? 400 : 90));
+        }
+        Log.info("LineFeatures values are the same for %d lines.", lineCount);
+    }
+
+    private static String line(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(maxLength);
+        if (random.nextBoolean()) {
+            for (int i = 0; i < length; i++) {
+                sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+        } else {
+            while (sb.length() < length) {
+                sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+                sb.append(random.nextInt(5) == 0 ? "  " : " ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void check(String line) {
+        LineFeatures features = LineFeatures.scan(line);
+        compare("digitRatio", line, ContentPatterns.digitRatio(line), features.digitRatio());
+        compare("capitalRatio", line, ContentPatterns.capitalRatio(line), features.capitalRatio());
+        if (ContentPatterns.badlyTypedTurkish(line) != features.badlyTypedTurkish()) {
+            throw new IllegalStateException("badlyTypedTurkish is different for line [" + line + "]");
+        }
+        if (line.length() > LineFeatures.MIN_REPETITION_CHECK_LENGTH) {
+            List<String> tokens = Splitter.on(" ").splitToList(line);
+            float expected = new LinkedHashSet<>(tokens).size() * 1f / tokens.size();
+            compare("repetitionRatio", line, expected, features.repetitionRatio());
+        }
+    }
+
+    private static void compare(String name, String line, double expected, double actual) {
+        if (expected != actual) {
+            throw new IllegalStateException(
+                    name + " is " + actual + " instead of " + expected + " for line [" + line + "]");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package suskun.extractor;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * Single scan form of ContentPatterns.cleanAndNormalize and TextUtil.separatePunctuationConnectedWords(s, 3).
+ * Characters are mapped and written to a per thread buffer while tokens are separated, output is the same as the
+ * TextUtil chain. Html entities and tags are not handled here, lines with '&amp;' or '&lt;' are cleaned with the
+ * TextUtil chain and only separated here.
+ * <p>
+ * LineNormalizerCheck compares outputs with the TextUtil chain on a corpus sample, LineNormalizerBenchmark in
+ * bench times both.
+ */
+class LineNormalizer {
+
+    // minimum length of the words around punctuation for separatePunctuationConnectedWords.
+    private static final int MIN_WORD_LENGTH = 3;
+
+    // Splitter.trimResults() uses this.
+    private static final CharMatcher WHITESPACE = CharMatcher.WHITESPACE;
+
+    private static final ThreadLocal<LineNormalizer> NORMALIZERS = ThreadLocal.withInitial(LineNormalizer::new);
+
+    private char[] out = new char[256];
+    private int length;
+    // token separation state.
+    private boolean inToken;
+    private boolean hasToken;
+    private int separatorIndex;
+    private int tokenStart;
+
+    /**
+     * Same as ContentPatterns.cleanAndNormalize(line).
+     */
+    static String clean(String line) {
+        return NORMALIZERS.get().normalize(line, true, false);
+    }
+
+    /**
+     * Same as TextUtil.separatePunctuationConnectedWords(line, 3).
+     */
+    static String separate(String line) {
+        return NORMALIZERS.get().normalize(line, false, true);
+    }
+
+    /**
+     * Same as TextUtil.separatePunctuationConnectedWords(ContentPatterns.cleanAndNormalize(line), 3).
+     */
+    static String cleanAndSeparate(String line) {
+        return NORMALIZERS.get().normalize(line, true, true);
+    }
+
+    private String normalize(String line, boolean clean, boolean separate) {
+        if (clean && needsHtmlCleaning(line)) {
+            line = ContentPatterns.cleanAndNormalize(line);
+            if (!separate) {
+                return line;
+            }
+            clean = false;
+        }
+        length = 0;
+        inToken = false;
+        hasToken = false;
+        ensureCapacity(line.length() + 1);
+        int n = line.length();
+        for (int i = 0; i < n; i++) {
+            char c = line.charAt(i);
+            if (clean) {
+                c = cleanChar(c);
+                // "''" is replaced before other apostrophe like chars are converted to "'".
+                if (c == '\'' && line.charAt(i) == '\'' && i + 1 < n && line.charAt(i + 1) == '\'') {
+                    c = '"';
+                    i++;
+                }
+            }
+            if (!separate) {
+                out[length++] = c;
+            } else if (c == ' ') {
+                if (inToken) {
+                    endToken();
+                }
+            } else {
+                if (!inToken) {
+                    startToken();
+                }
+                ensureCapacity(length + 2);
+                out[length++] = c;
+            }
+        }
+        if (inToken) {
+            endToken();
+        }
+        return new String(out, 0, length);
+    }
+
+    private static boolean needsHtmlCleaning(String line) {
+        return line.indexOf('&') >= 0 || line.indexOf('<') >= 0;
+    }
+
+    // Same as cleanCdataIllegalChars(" ") followed by char replacements of normalizeQuotesHyphens.
+    private static char cleanChar(char c) {
+        if ((c < 32 && c != '\t' && c != '\n' && c != '\r') || c > 0xD7FF) {
+            return ' ';
+        }
+        if (c < 128) {
+            return c == '`' ? '\'' : c;
+        }
+        switch (c) {
+            case '“':
+            case '”':
+            case '»':
+            case '«':
+            case '″':
+            case '\u0093':
+            case '\u0094':
+                return '"';
+            case '\u0091':
+            case '\u0092':
+            case '′':
+            case '´':
+            case '’':
+            case '‘':
+                return '\'';
+            case '\u0096':
+            case '\u0097':
+            case '–':
+                return '-';
+            default:
+                return c;
+        }
+    }
+
+    private void startToken() {
+        separatorIndex = length;
+        // a space is written before every token except the first one, it is removed if the token is empty.
+        if (hasToken) {
+            ensureCapacity(length + 2);
+            out[length++] = ' ';
+        }
+        tokenStart = length;
+        inToken = true;
+    }
+
+    private void endToken() {
+        inToken = false;
+        int start = tokenStart;
+        int end = length;
+        while (start < end && WHITESPACE.matches(out[start])) {
+            start++;
+        }
+        while (end > start && WHITESPACE.matches(out[end - 1])) {
+            end--;
+        }
+        if (start == end) {
+            // empty tokens are omitted together with their separator.
+            length = separatorIndex;
+            return;
+        }
+        if (start > tokenStart) {
+            System.arraycopy(out, start, out, tokenStart, end - start);
+        }
+        length = tokenStart + end - start;
+        separateWords();
+        hasToken = true;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == '.' || c == ',' || c == '!' || c == '?' || c == ';' || c == ':';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // TextUtil.separateWords: "word.word" becomes "word. word" if words have no digits and are long enough.
+    private void separateWords() {
+        int i = tokenStart;
+        while (i < length && !isPunctuation(out[i])) {
+            if (isDigit(out[i])) {
+                return;
+            }
+            i++;
+        }
+        if (i == length || i - tokenStart < MIN_WORD_LENGTH) {
+            return;
+        }
+        int secondStart = i;
+        while (secondStart < length && isPunctuation(out[secondStart])) {
+            secondStart++;
+        }
+        if (length - secondStart < MIN_WORD_LENGTH) {
+            return;
+        }
+        for (int j = secondStart; j < length; j++) {
+            if (isPunctuation(out[j]) || isDigit(out[j])) {
+                return;
+            }
+        }
+        ensureCapacity(length + 2);
+        System.arraycopy(out, secondStart, out, secondStart + 1, length - secondStart);
+        out[secondStart] = ' ';
+        length++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > out.length) {
+            char[] larger = new char[Math.max(capacity, out.length * 2)];
+            System.arraycopy(out, 0, larger, 0, length);
+            out = larger;
+        }
+    }
+}
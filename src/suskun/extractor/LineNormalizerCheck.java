@@ -0,0 +1,56 @@
+package suskun.extractor;
+
+import zemberek.core.logging.Log;
+import zemberek.core.text.TextUtil;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Differential check of LineNormalizer against the TextUtil chain it replaces. Every line of a corpus sample
+ * (extractor output) is normalized with both and the check fails on the first line with a different result.
+ * <pre>
+ * java suskun.extractor.LineNormalizerCheck [corpus sample file]
+ * </pre>
+ */
+public class LineNormalizerCheck {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: LineNormalizerCheck [corpus sample file]");
+        }
+        Path sample = Paths.get(args[0]);
+        long lineCount = 0;
+        try (WebDocumentReader reader = WebDocumentReader.open(sample)) {
+            while (reader.hasNext()) {
+                WebDocument document = reader.next();
+                for (String line : document.lines) {
+                    check(document, line);
+                    lineCount++;
+                }
+            }
+        }
+        if (lineCount == 0) {
+            throw new IllegalStateException("There are no lines in " + sample);
+        }
+        Log.info("%d lines of %s are normalized the same.", lineCount, sample);
+    }
+
+    private static void check(WebDocument document, String line) {
+        String cleaned = ContentPatterns.cleanAndNormalize(line);
+        compare("clean", document, line, cleaned, LineNormalizer.clean(line));
+        compare("separate", document, line,
+                TextUtil.separatePunctuationConnectedWords(line, 3), LineNormalizer.separate(line));
+        compare("cleanAndSeparate", document, line,
+                TextUtil.separatePunctuationConnectedWords(cleaned, 3), LineNormalizer.cleanAndSeparate(line));
+    }
+
+    private static void compare(String name, WebDocument document, String line, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(String.format(
+                    "LineNormalizer.%s is different for a line of %s%nLine     : [%s]%nExpected : [%s]%nActual   : [%s]",
+                    name, document.getId(), line, expected, actual));
+        }
+    }
+}
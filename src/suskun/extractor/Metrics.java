@@ -0,0 +1,338 @@
+package suskun.extractor;
+
+import zemberek.core.logging.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters and latency histograms of pipeline stages. Each metric is kept in total, per source
+ * and per thread. Updates only touch LongAdder instances so they are cheap under contention.
+ * Pages that are skipped because of their size or processing time are kept in a quarantine list. If rule
+ * profiling is enabled, report contains the cost of each content rule, see {@link RuleProfiler}.
+ * A JSON report can be generated at the end of a run.
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * Metrics.BOILERPIPE.record(source, System.nanoTime() - start);
+ * </pre>
+ */
+public class Metrics {
+
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private static volatile long runStart = System.currentTimeMillis();
+
+    // only first entries are kept in the quarantine list, all are counted.
+    private static final int MAX_QUARANTINE_SIZE = 10_000;
+    private static final Queue<String[]> quarantine = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger quarantineCount = new AtomicInteger();
+
+    public static final Timer READ = timer("read");
+    public static final Timer NORMALIZE = timer("normalize");
+    public static final Timer BOILERPIPE = timer("boilerpipe");
+    public static final Timer METADATA = timer("metadata");
+    public static final Timer WRITE = timer("write");
+    public static final Timer REDUCE = timer("reduce");
+    public static final Timer HASH = timer("hash");
+    public static final Timer DEDUPE = timer("dedupe");
+
+    public static final Counter PAGES = counter("pages");
+    public static final Counter BYTES = counter("bytes");
+    public static final Counter DOCUMENTS = counter("documents");
+    public static final Counter LINES = counter("lines");
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    static class Stat {
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        // histogram[i] holds values in [2^(i-1), 2^i)
+        final LongAdder[] histogram;
+
+        Stat(boolean withHistogram) {
+            if (withHistogram) {
+                histogram = new LongAdder[64];
+                for (int i = 0; i < histogram.length; i++) {
+                    histogram[i] = new LongAdder();
+                }
+            } else {
+                histogram = null;
+            }
+        }
+
+        void add(long value) {
+            count.increment();
+            sum.add(value);
+            if (histogram != null) {
+                histogram[64 - Long.numberOfLeadingZeros(Math.max(value, 0))].increment();
+            }
+        }
+
+        // upper bound of the bucket that contains the quantile.
+        long quantile(double q) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i].sum();
+                if (seen >= target) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    static abstract class Metric {
+        final String name;
+        final boolean withHistogram;
+        final Stat total;
+        final Map<String, Stat> bySource = new ConcurrentHashMap<>();
+        final Map<String, Stat> byThread = new ConcurrentHashMap<>();
+
+        Metric(String name, boolean withHistogram) {
+            this.name = name;
+            this.withHistogram = withHistogram;
+            this.total = new Stat(withHistogram);
+        }
+
+        void add(String source, long value) {
+            total.add(value);
+            if (source != null) {
+                Stat s = bySource.get(source);
+                if (s == null) {
+                    s = bySource.computeIfAbsent(source, k -> new Stat(withHistogram));
+                }
+                s.add(value);
+            }
+            String thread = Thread.currentThread().getName();
+            Stat t = byThread.get(thread);
+            if (t == null) {
+                t = byThread.computeIfAbsent(thread, k -> new Stat(withHistogram));
+            }
+            t.add(value);
+        }
+
+        void reset() {
+            bySource.clear();
+            byThread.clear();
+            total.count.reset();
+            total.sum.reset();
+            if (total.histogram != null) {
+                for (LongAdder adder : total.histogram) {
+                    adder.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Latency of a stage in nanoseconds.
+     */
+    public static class Timer extends Metric {
+        Timer(String name) {
+            super(name, true);
+        }
+
+        public void record(String source, long nanos) {
+            add(source, nanos);
+        }
+    }
+
+    public static class Counter extends Metric {
+        Counter(String name) {
+            super(name, false);
+        }
+
+        public void add(String source, long amount) {
+            super.add(source, amount);
+        }
+
+        public void increment(String source) {
+            super.add(source, 1);
+        }
+
+        /**
+         * Returns the total of all sources since the last reset.
+         */
+        public long value() {
+            return total.sum.sum();
+        }
+    }
+
+    /**
+     * Clears all metrics and marks the start of a new run.
+     */
+    public static void reset() {
+        timers.values().forEach(Metric::reset);
+        counters.values().forEach(Metric::reset);
+        quarantine.clear();
+        quarantineCount.set(0);
+        RuleProfiler.reset();
+        runStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a page that is skipped because it exceeds processing limits.
+     */
+    public static void quarantine(String source, String id, String reason) {
+        if (quarantineCount.incrementAndGet() <= MAX_QUARANTINE_SIZE) {
+            quarantine.add(new String[]{source, id, reason});
+        }
+    }
+
+    public static int quarantineCount() {
+        return quarantineCount.get();
+    }
+
+    public static String toJson() {
+        long end = System.currentTimeMillis();
+        double seconds = Math.max(end - runStart, 1) / 1000d;
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"start\": ").append(quote(formatTime(runStart))).append(",\n");
+        sb.append("  \"end\": ").append(quote(formatTime(end))).append(",\n");
+        sb.append("  \"seconds\": ").append(format(seconds)).append(",\n");
+        sb.append("  \"timers\": {");
+        appendMetrics(sb, new TreeMap<>(timers), seconds);
+        sb.append("},\n");
+        sb.append("  \"counters\": {");
+        appendMetrics(sb, new TreeMap<>(counters), seconds);
+        sb.append("},\n");
+        sb.append("  \"quarantine\": {\"count\": ").append(quarantineCount.get()).append(", \"pages\": [");
+        boolean first = true;
+        for (String[] entry : quarantine) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"source\": ").append(quote(entry[0]))
+                    .append(", \"id\": ").append(quote(entry[1]))
+                    .append(", \"reason\": ").append(quote(entry[2])).append("}");
+        }
+        sb.append(first ? "]}" : "\n  ]}");
+        if (RuleProfiler.ENABLED) {
+            sb.append(",\n  \"rules\": [");
+            first = true;
+            for (RuleProfiler.RuleStat stat : RuleProfiler.sortedByCost()) {
+                sb.append(first ? "\n" : ",\n");
+                first = false;
+                long count = stat.count.sum();
+                long nanos = stat.nanos.sum();
+                sb.append("    {\"kind\": ").append(quote(stat.kind))
+                        .append(", \"pattern\": ").append(quote(stat.pattern.pattern()))
+                        .append(", \"count\": ").append(count)
+                        .append(", \"matches\": ").append(stat.matches.sum())
+                        .append(", \"totalMillis\": ").append(format(nanos / 1e6))
+                        .append(", \"meanMicros\": ").append(format(count == 0 ? 0 : nanos / 1e3 / count))
+                        .append("}");
+            }
+            sb.append(first ? "]" : "\n  ]");
+        }
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    private static void appendMetrics(StringBuilder sb, Map<String, ? extends Metric> metrics, double seconds) {
+        boolean first = true;
+        for (Metric metric : metrics.values()) {
+            if (metric.total.count.sum() == 0) {
+                continue;
+            }
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    ").append(quote(metric.name)).append(": {\n");
+            sb.append("      \"total\": ");
+            appendStat(sb, metric, metric.total, seconds);
+            sb.append(",\n      \"sources\": ");
+            appendStats(sb, metric, metric.bySource, seconds);
+            sb.append(",\n      \"threads\": ");
+            appendStats(sb, metric, metric.byThread, seconds);
+            sb.append("\n    }");
+        }
+        if (!first) {
+            sb.append("\n  ");
+        }
+    }
+
+    private static void appendStats(StringBuilder sb, Metric metric, Map<String, Stat> stats, double seconds) {
+        sb.append("{");
+        boolean first = true;
+        for (Map.Entry<String, Stat> entry : new TreeMap<>(stats).entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("        ").append(quote(entry.getKey())).append(": ");
+            appendStat(sb, metric, entry.getValue(), seconds);
+        }
+        sb.append(first ? "}" : "\n      }");
+    }
+
+    private static void appendStat(StringBuilder sb, Metric metric, Stat stat, double seconds) {
+        long count = stat.count.sum();
+        long sum = stat.sum.sum();
+        sb.append("{\"count\": ").append(count);
+        if (metric.withHistogram) {
+            sb.append(", \"totalMillis\": ").append(format(sum / 1e6));
+            sb.append(", \"meanMicros\": ").append(format(count == 0 ? 0 : sum / 1e3 / count));
+            sb.append(", \"p50Micros\": ").append(format(stat.quantile(0.5) / 1e3));
+            sb.append(", \"p99Micros\": ").append(format(stat.quantile(0.99) / 1e3));
+            sb.append(", \"perSecond\": ").append(format(sum == 0 ? 0 : count / (sum / 1e9)));
+        } else {
+            sb.append(", \"value\": ").append(sum);
+            sb.append(", \"perSecond\": ").append(format(sum / seconds));
+        }
+        sb.append("}");
+    }
+
+    private static String format(double d) {
+        return String.format(Locale.ENGLISH, "%.2f", d);
+    }
+
+    private static String formatTime(long millis) {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date(millis));
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Saves JSON report as [dir]/[name]-report-[time].json and returns the file.
+     */
+    public static Path saveReport(Path dir, String name) throws IOException {
+        Files.createDirectories(dir);
+        String time = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss").format(new Date(runStart));
+        Path report = dir.resolve(name + "-report-" + time + ".json");
+        Files.write(report, toJson().getBytes(StandardCharsets.UTF_8));
+        Log.info("Run report is saved to %s", report);
+        return report;
+    }
+}
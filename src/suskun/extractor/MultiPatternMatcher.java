@@ -0,0 +1,147 @@
+package suskun.extractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Checks if any of a set of patterns can be found in an input. Result is the same as calling
+ * Regexps.matchesAny(pattern, input) for each pattern. Patterns that are plain words like "video" or "\.jpg", or
+ * alternations of them like "[<]|[>]" are matched with a single Aho-Corasick scan. Others are merged into a single
+ * alternation pattern if requested. Merging helps with short inputs like urls, for longer lines trying every
+ * alternative at every position is slower than searching patterns one by one.
+ */
+public class MultiPatternMatcher {
+
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<");
+
+    private final AhoCorasick literals;
+    private final Pattern merged;
+    // patterns that cannot be merged.
+    private final List<Pattern> separate = new ArrayList<>();
+
+    public MultiPatternMatcher(Collection<Pattern> patterns) {
+        this(patterns, true);
+    }
+
+    public MultiPatternMatcher(Collection<Pattern> patterns, boolean mergeRegexps) {
+        List<String> literalList = new ArrayList<>();
+        List<Pattern> regexps = new ArrayList<>();
+        for (Pattern pattern : patterns) {
+            List<String> alternatives = pattern.flags() == 0 ? toLiterals(pattern.pattern()) : null;
+            if (alternatives != null) {
+                literalList.addAll(alternatives);
+            } else if (mergeRegexps && pattern.flags() == 0 && !BACK_REFERENCE.matcher(pattern.pattern()).find()) {
+                regexps.add(pattern);
+            } else {
+                separate.add(pattern);
+            }
+        }
+        literals = literalList.isEmpty() ? null : new AhoCorasick(literalList);
+        merged = regexps.isEmpty() ? null : merge(regexps);
+    }
+
+    /**
+     * Returns literal alternatives of a pattern like "foo|[<]|\.jpg", or null if any of the alternatives is not a
+     * literal or a character class with a single character.
+     */
+    static List<String> toLiterals(String pattern) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= pattern.length(); i++) {
+            if (i < pattern.length() && pattern.charAt(i) == '\\') {
+                i++;
+            } else if (i == pattern.length() || pattern.charAt(i) == '|') {
+                String alternative = pattern.substring(start, i);
+                if (alternative.length() == 3 && alternative.charAt(0) == '['
+                        && alternative.charAt(2) == ']' && "^\\[]".indexOf(alternative.charAt(1)) < 0) {
+                    alternative = alternative.substring(1, 2);
+                } else {
+                    alternative = toLiteral(alternative);
+                }
+                if (alternative == null || alternative.isEmpty()) {
+                    return null;
+                }
+                result.add(alternative);
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private Pattern merge(List<Pattern> regexps) {
+        if (regexps.size() == 1) {
+            return regexps.get(0);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Pattern regexp : regexps) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(regexp.pattern()).append(')');
+        }
+        try {
+            return Pattern.compile(sb.toString());
+        } catch (PatternSyntaxException e) {
+            // for example, same group names in different patterns.
+            separate.addAll(regexps);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the literal string this pattern matches, or null if pattern contains regular expression constructs.
+     * Escaped non alphanumeric characters like "\." are accepted.
+     */
+    static String toLiteral(String pattern) {
+        StringBuilder sb = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == pattern.length()) {
+                    return null;
+                }
+                char next = pattern.charAt(i + 1);
+                if (Character.isLetterOrDigit(next) || next > 127) {
+                    return null;
+                }
+                sb.append(next);
+                i++;
+            } else if (META_CHARS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public boolean matchesAny(String input) {
+        if (literals != null && literals.containsAny(input)) {
+            return true;
+        }
+        if (merged != null && merged.matcher(input).find()) {
+            return true;
+        }
+        for (Pattern pattern : separate) {
+            if (pattern.matcher(input).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return literals == null && merged == null && separate.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "literals=" + (literals == null ? 0 : literals.size()) +
+                " merged=" + (merged == null ? "-" : merged.pattern()) +
+                " separate=" + separate.size();
+    }
+}
@@ -0,0 +1,144 @@
+package suskun.extractor;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and time limits for processing a single page. A Guard is started for each page. Text given to regular
+ * expressions and the reader given to the html parser are wrapped by the guard, they throw
+ * {@link ExceededException} when the time is up. So a runaway regexp or parse is aborted and the thread moves on.
+ * <pre>
+ * PageBudget.Guard guard = budget.start();
+ * Matcher m = pattern.matcher(guard.wrap(text));
+ * ...
+ * if (guard.exceeded()) ...
+ * </pre>
+ */
+class PageBudget {
+
+    static final PageBudget UNLIMITED = new PageBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    // time is checked after this many chars are read.
+    private static final int CHECK_INTERVAL = 4096;
+
+    final long maxBytes;
+    final long maxMillis;
+
+    PageBudget(long maxBytes, long maxMillis) {
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+    }
+
+    boolean isTooLarge(long byteCount) {
+        return byteCount > maxBytes;
+    }
+
+    Guard start() {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        long now = System.nanoTime();
+        // prevent overflow for unlimited budgets.
+        return new Guard(nanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "maxBytes=" + maxBytes + " maxMillis=" + maxMillis;
+    }
+
+    static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ExceededException() {
+            super("Page processing time limit is exceeded.", null, false, false);
+        }
+    }
+
+    /**
+     * Time limit of a single page. Not thread safe.
+     */
+    static class Guard {
+        private final long deadline;
+        private boolean exceeded;
+        private int counter;
+
+        Guard(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns true if an ExceededException is thrown by this guard. Exception itself may be wrapped by
+         * the parser, so this should be checked after a failure.
+         */
+        boolean exceeded() {
+            return exceeded;
+        }
+
+        void check() {
+            if (System.nanoTime() > deadline) {
+                exceeded = true;
+                throw new ExceededException();
+            }
+        }
+
+        private void tick(int charCount) {
+            counter += charCount;
+            if (counter >= CHECK_INTERVAL) {
+                counter = 0;
+                check();
+            }
+        }
+
+        CharSequence wrap(CharSequence text) {
+            return new GuardedCharSequence(text, this);
+        }
+
+        Reader wrap(Reader reader) {
+            return new FilterReader(reader) {
+                @Override
+                public int read() throws IOException {
+                    tick(1);
+                    return super.read();
+                }
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    check();
+                    return super.read(cbuf, off, len);
+                }
+            };
+        }
+    }
+
+    private static final class GuardedCharSequence implements CharSequence {
+        private final CharSequence text;
+        private final Guard guard;
+
+        GuardedCharSequence(CharSequence text, Guard guard) {
+            this.text = text;
+            this.guard = guard;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            guard.tick(1);
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new GuardedCharSequence(text.subSequence(start, end), guard);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
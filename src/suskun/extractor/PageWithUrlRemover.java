@@ -2,17 +2,16 @@ package suskun.extractor;
 
 import com.google.common.collect.Lists;
 import zemberek.core.logging.Log;
-import zemberek.core.text.Regexps;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class PageWithUrlRemover {
 
@@ -24,14 +23,7 @@ public class PageWithUrlRemover {
         List<WebDocument> reducedDocs = new ArrayList<>(corpus.documentCount());
 
         for (WebDocument document : corpus.getPages()) {
-            boolean ignore = false;
-            for (Pattern p : patterns.getUrlRemovePatterns()) {
-                if (Regexps.matchesAny(p, document.url)) {
-                    ignore = true;
-                    break;
-                }
-            }
-            if(!ignore) {
+            if (patterns.isUrlAccepted(document.url)) {
                 reducedDocs.add(document);
             }
         }
@@ -47,7 +39,7 @@ public class PageWithUrlRemover {
                 .filter(path -> path.toFile().isDirectory() && !path.equals(corporaRoot)).iterator());
 
         Path patternsPath = Paths.get("content-rules.txt");
-        Map<String, ContentPatterns> contentPatternsMap = ContentPatterns.fromFile(patternsPath);
+        RuleRegistry rules = RuleRegistry.get(patternsPath);
 
         for (Path corpusRoot : corpusRoots) {
             List<Path> files = Lists.newArrayList(Files.walk(corpusRoot, 1)
@@ -57,13 +49,21 @@ public class PageWithUrlRemover {
             Files.createDirectories(outDir);
 
             for (Path file : files) {
-                Log.info("Loading %s", file);
-                WebCorpus corpus = new WebCorpus(corpusRoot.toFile().getName(), file.toFile().getName());
-                corpus.addDocuments(WebCorpus.loadDocuments(file));
-                Log.info("Processing %s", corpus);
-                WebCorpus reduced = removePagesWithUnwantedUrls(corpus, contentPatternsMap.get(corpus.source));
-                Log.info("Saving %s", corpus);
-                reduced.save(outDir.resolve(file.toFile().getName()), false);
+                Log.info("Processing %s", file);
+                String source = corpusRoot.toFile().getName();
+                ContentPatterns patterns = rules.patterns(source);
+                if (patterns == null) {
+                    Log.info("No content patterns for [%s]. Saving input without changing.", source);
+                }
+                // pages are read, filtered and written one by one. Output is moved in place when it is complete.
+                Path out = outDir.resolve(file.toFile().getName());
+                Path tmp = Extractor.tmpFile(out);
+                try (Stream<WebDocument> documents = WebDocumentReader.stream(file);
+                     PrintWriter p = new PrintWriter(tmp.toFile(), "utf-8")) {
+                    documents.filter(document -> patterns == null || patterns.isUrlAccepted(document.url))
+                            .forEach(document -> WebCorpus.write(p, document, false));
+                }
+                Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             }
         }
     }
@@ -0,0 +1,257 @@
+package suskun.extractor;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads documents of a corpus file with multiple threads. File is split into chunks of about chunkSize bytes,
+ * boundaries are found on a memory mapped view of the file. Chunks are parsed in parallel and documents are
+ * returned in file order. Only a few chunks per thread are parsed ahead of the caller, and total size of those
+ * chunks is limited to READ_AHEAD_BYTES, so memory use grows neither with file size nor with thread count. Parsed
+ * documents take a few times more memory than their bytes. If the limit allows fewer chunks than threads, fewer
+ * chunks are parsed in parallel.
+ * <p>
+ * Defaults can be given with system properties: suskun.readerChunkSize and suskun.readerReadAhead in bytes and
+ * suskun.readerThreads.
+ * <p>
+ * A chunk starts at a "&lt;doc id=" line right after a "&lt;/doc&gt;" line. Such a line always starts a document,
+ * so documents are the same as WebDocumentReader returns.
+ * <pre>
+ * try (ParallelDocumentReader reader = ParallelDocumentReader.open(file, 4)) {
+ *     while (reader.hasNext()) {
+ *         WebDocument document = reader.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ParallelDocumentReader implements Iterator<WebDocument>, Closeable {
+
+    static final long DEFAULT_CHUNK_SIZE = Long.getLong("suskun.readerChunkSize", 16 << 20);
+    static final int DEFAULT_THREAD_COUNT =
+            Integer.getInteger("suskun.readerThreads", Runtime.getRuntime().availableProcessors());
+    // limit of total bytes of chunks that are parsed ahead of the caller.
+    static final long READ_AHEAD_BYTES = Long.getLong("suskun.readerReadAhead", 64 << 20);
+
+    // chunks parsed ahead of the caller, per thread.
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] DOC_START = "<doc id=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DOC_END = "</doc>".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long size;
+    // used for finding chunk boundaries, chunks are mapped separately.
+    private final MappedByteBuffer[] segments;
+    private final ExecutorService pool;
+    private final int maxChunksAhead;
+    private final long chunkSize;
+
+    private final ArrayDeque<Future<List<WebDocument>>> chunks = new ArrayDeque<>();
+    private long nextChunkStart;
+    private Iterator<WebDocument> current = Collections.emptyIterator();
+
+    private ParallelDocumentReader(Path file, int threadCount, long chunkSize) throws IOException {
+        if (threadCount < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException(
+                    "Thread count and chunk size must be positive. But they are " + threadCount + ", " + chunkSize);
+        }
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            this.segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        long chunksInReadAhead = Math.max(1, READ_AHEAD_BYTES / chunkSize);
+        this.maxChunksAhead = (int) Math.min(threadCount * CHUNKS_AHEAD_PER_THREAD, chunksInReadAhead);
+        AtomicInteger threadCounter = new AtomicInteger();
+        // more threads than chunks ahead would stay idle.
+        this.pool = Executors.newFixedThreadPool(Math.min(threadCount, maxChunksAhead), r -> {
+            Thread t = new Thread(r, "corpus-reader-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static ParallelDocumentReader open(Path corpusFile) throws IOException {
+        return open(corpusFile, DEFAULT_THREAD_COUNT);
+    }
+
+    public static ParallelDocumentReader open(Path corpusFile, int threadCount) throws IOException {
+        return new ParallelDocumentReader(corpusFile, threadCount, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static ParallelDocumentReader open(Path corpusFile, int threadCount, long chunkSize) throws IOException {
+        return new ParallelDocumentReader(corpusFile, threadCount, chunkSize);
+    }
+
+    /**
+     * Parallel form of WebCorpus.loadDocuments.
+     */
+    public static List<WebDocument> loadDocuments(Path corpusFile, int threadCount) throws IOException {
+        List<WebDocument> documents = new ArrayList<>();
+        try (ParallelDocumentReader reader = open(corpusFile, threadCount)) {
+            reader.forEachRemaining(documents::add);
+        }
+        return documents;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+    }
+
+    private boolean startsWith(long pos, byte[] prefix) {
+        if (pos + prefix.length > size) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (byteAt(pos + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // start of the line after the one that contains pos. Line ends are "\n", "\r" or "\r\n" as in BufferedReader.
+    private long nextLine(long pos) {
+        while (pos < size) {
+            byte b = byteAt(pos);
+            if (b == '\n') {
+                return pos + 1;
+            }
+            if (b == '\r') {
+                return pos + 1 < size && byteAt(pos + 1) == '\n' ? pos + 2 : pos + 1;
+            }
+            pos++;
+        }
+        return size;
+    }
+
+    // first "<doc id=" line after pos that follows a "</doc>" line, or size if there is none. After a "</doc>" line
+    // parser is never inside a document, so such a line is a document start wherever parsing begins.
+    private long nextBoundary(long pos) {
+        if (pos >= size) {
+            return size;
+        }
+        // the line that contains pos may be partial, its previous line is not known.
+        long previous = nextLine(pos);
+        long line = nextLine(previous);
+        while (line < size) {
+            if (startsWith(previous, DOC_END) && startsWith(line, DOC_START)) {
+                return line;
+            }
+            previous = line;
+            line = nextLine(line);
+        }
+        return size;
+    }
+
+    private void submitChunks() {
+        while (chunks.size() < maxChunksAhead && nextChunkStart < size) {
+            long start = nextChunkStart;
+            long end = nextBoundary(start + chunkSize);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new UncheckedIOException(new IOException(
+                        "No document boundary in " + (end - start) + " bytes from " + start + " in " + file));
+            }
+            nextChunkStart = end;
+            chunks.add(pool.submit(() -> parse(start, end)));
+        }
+    }
+
+    // chunk is decoded while it is parsed, so only its documents are kept in memory. Decoder reports malformed
+    // input as Files.newBufferedReader does.
+    private List<WebDocument> parse(long start, long end) throws IOException {
+        List<WebDocument> documents = new ArrayList<>();
+        try (FileChannel chunkChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            chunkChannel.position(start);
+            InputStream in = ByteStreams.limit(Channels.newInputStream(chunkChannel), end - start);
+            BufferedReader lines = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()), BUFFER_SIZE);
+            try (WebDocumentReader reader = new WebDocumentReader(lines)) {
+                reader.forEachRemaining(documents::add);
+            }
+        }
+        return documents;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            submitChunks();
+            if (chunks.isEmpty()) {
+                return false;
+            }
+            current = result(chunks.poll()).iterator();
+        }
+        return true;
+    }
+
+    private List<WebDocument> result(Future<List<WebDocument>> chunk) {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Cannot read " + file, cause);
+        }
+    }
+
+    @Override
+    public WebDocument next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        chunks.clear();
+        channel.close();
+    }
+}
@@ -0,0 +1,90 @@
+package suskun.extractor;
+
+import com.google.common.hash.Hashing;
+import com.kohlschutter.boilerpipe.BoilerpipeExtractor;
+import com.kohlschutter.boilerpipe.BoilerpipeProcessingException;
+import com.kohlschutter.boilerpipe.document.TextDocument;
+import com.kohlschutter.boilerpipe.extractors.ArticleExtractor;
+import com.kohlschutter.boilerpipe.extractors.KeepEverythingExtractor;
+import com.kohlschutter.boilerpipe.sax.BoilerpipeHTMLContentHandler;
+import com.kohlschutter.boilerpipe.sax.BoilerpipeHTMLParser;
+import com.kohlschutter.boilerpipe.sax.BoilerpipeSAXInput;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import zemberek.core.logging.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs a boilerpipe extractor with an html parser that is kept per thread and reused for every document.
+ * Extractor.getText(..) methods generate a new NekoHTML parser, configuration and content handler for each
+ * document. Result is the same, content handler is reset after each document. If parsing fails, parser of the
+ * thread is discarded.
+ */
+class PooledBoilerpipe {
+
+    static final PooledBoilerpipe ARTICLE = new PooledBoilerpipe(ArticleExtractor.INSTANCE);
+    static final PooledBoilerpipe EVERYTHING = new PooledBoilerpipe(KeepEverythingExtractor.INSTANCE);
+
+    // identifies the boilerpipe library, so that results cached with another build are not used.
+    static final String BUILD = build();
+
+    // parser does not depend on the extractor, so a single one is used by all extractors of a thread.
+    private static final ThreadLocal<Parser> PARSER = ThreadLocal.withInitial(Parser::new);
+
+    private static class Parser {
+        final BoilerpipeHTMLContentHandler handler = new BoilerpipeHTMLContentHandler();
+        final BoilerpipeHTMLParser parser = new BoilerpipeHTMLParser(handler);
+
+        // recycle() does not clear the title, a page without a title would get the title of the previous one.
+        void reset() {
+            handler.recycle();
+            handler.setTitle(null);
+        }
+    }
+
+    private final BoilerpipeExtractor extractor;
+
+    // hash of the jar that contains boilerpipe, or its location if it is not a jar file.
+    private static String build() {
+        try {
+            Path location = Paths.get(
+                    ArticleExtractor.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isRegularFile(location)) {
+                return Hashing.murmur3_128().hashBytes(Files.readAllBytes(location)).toString();
+            }
+            return location.toString();
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            Log.warn("Boilerpipe library cannot be identified. Reason: %s", e.toString());
+            return "unknown";
+        }
+    }
+
+    PooledBoilerpipe(BoilerpipeExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    String getText(Reader reader) throws BoilerpipeProcessingException {
+        Parser parser = PARSER.get();
+        boolean failed = true;
+        try {
+            TextDocument document = new BoilerpipeSAXInput(new InputSource(reader)).getTextDocument(parser.parser);
+            String text = extractor.getText(document);
+            failed = false;
+            return text;
+        } catch (SAXException e) {
+            throw new BoilerpipeProcessingException(e);
+        } finally {
+            if (failed) {
+                PARSER.remove();
+            } else {
+                parser.reset();
+            }
+        }
+    }
+}
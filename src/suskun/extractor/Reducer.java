@@ -4,12 +4,13 @@ import com.google.common.collect.Lists;
 import zemberek.core.logging.Log;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class Reducer {
 
@@ -17,7 +18,9 @@ public class Reducer {
 
         Path sourceRoot = Paths.get("/media/aaa/Data/corpora/news-foo");
         Path outRoot = Paths.get("/media/aaa/Data/corpora/news-foo-reduced");
+        Metrics.reset();
         reduceAll(sourceRoot, outRoot, false);
+        Metrics.saveReport(outRoot, "reducer");
 
     }
 
@@ -37,38 +40,56 @@ public class Reducer {
             boolean removeDuplicateLines) throws IOException {
 
         Files.createDirectories(outRoot);
-        Map<String, ContentPatterns> removePatternsMap =
-                ContentPatterns.fromFile(Paths.get("content-rules.txt"));
+        RuleRegistry rules = RuleRegistry.get();
 
 
         for (Path file : files) {
-            Log.info("Loading %s", file);
+            Log.info("Processing %s", file);
             WebCorpus corpus = new WebCorpus(file.toFile().getName(), file.toFile().getName());
-            corpus.addDocuments(WebCorpus.loadDocuments(file));
-            Log.info(corpus);
-            Log.info("Total = %d ", corpus.getPages().size());
 
-            ContentPatterns patterns = removePatternsMap.get(corpus.source.replaceAll("\\.corpus$", ""));
+            ContentPatterns patterns = rules.patterns(corpus.source.replaceAll("\\.corpus$", ""));
             if (patterns == null) {
                 Log.warn("No remove pattern found for " + corpus.source);
                 patterns = new ContentPatterns();
             }
 
-            WebCorpus reducedCorpus = new WebCorpus(corpus.source, corpus.id);
-            reducedCorpus.addDocuments(corpus.getReducedPages(patterns, removeDuplicateLines));
-
-            Log.info(reducedCorpus);
-            Log.info("Total Reduced Docs = %d ", corpus.getPages().size());
-
-            reducedCorpus.save(outRoot.resolve(file.toFile().getName()), saveOnlyContent);
+            int count = reduceStreaming(corpus, file, outRoot.resolve(file.toFile().getName()),
+                    patterns, saveOnlyContent, removeDuplicateLines);
+            Log.info("Total Reduced Docs = %d ", count);
         }
     }
 
+    // pages are read, reduced and written one by one. Output is written to a temporary file in the work directory
+    // first, so that a failed run does not leave a partial file that is skipped as existing or read as a corpus
+    // file. Returns the number of written pages.
+    private static int reduceStreaming(
+            WebCorpus corpus,
+            Path file,
+            Path out,
+            ContentPatterns patterns,
+            boolean saveOnlyContent,
+            boolean removeDuplicateLines) throws IOException {
+        int[] count = {0};
+        Path tmp = Extractor.tmpFile(out);
+        try (ParallelDocumentReader reader = ParallelDocumentReader.open(file);
+             PrintWriter p = new PrintWriter(tmp.toFile(), "utf-8")) {
+            corpus.reducePages(reader, patterns, removeDuplicateLines, page -> {
+                long start = System.nanoTime();
+                WebCorpus.write(p, page, saveOnlyContent);
+                Metrics.WRITE.record(corpus.source, System.nanoTime() - start);
+                count[0]++;
+            });
+        }
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (count[0] == 0) {
+            Log.warn("No page with content left!");
+        }
+        return count[0];
+    }
 
     public static void reduceSingle(Path sourceRoot, Path outRoot, boolean saveOnlyContent) throws IOException {
 
-        Map<String, ContentPatterns> removePatternsMap =
-                ContentPatterns.fromFile(Paths.get("content-rules.txt"));
+        RuleRegistry rules = RuleRegistry.get();
 
         String name = sourceRoot.toFile().getName();
 
@@ -85,21 +106,16 @@ public class Reducer {
                 Log.info("%s Exists. skipping.", out);
                 continue;
             }
-            corpus.addDocuments(WebCorpus.loadDocuments(file));
-
-            Log.info(corpus);
-            Log.info("Total = %d ", corpus.getPages().size());
+            Log.info("Processing %s", file);
 
-            ContentPatterns patterns = removePatternsMap.get(name);
+            ContentPatterns patterns = rules.patterns(name);
             if (patterns == null) {
                 Log.warn("No remove pattern found for " + name);
                 patterns = new ContentPatterns();
             }
 
-            List<WebDocument> reducedPages = corpus.getReducedPages(patterns, true);
-            corpus.removeAll();
-            corpus.addDocuments(reducedPages);
-            corpus.save(out, saveOnlyContent);
+            int count = reduceStreaming(corpus, file, out, patterns, saveOnlyContent, true);
+            Log.info("Total Reduced Docs = %d ", count);
         }
 
     }
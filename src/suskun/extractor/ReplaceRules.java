@@ -0,0 +1,155 @@
+package suskun.extractor;
+
+import com.google.common.base.Splitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of RW, RW-E and RP rules of a source. Keys are compiled once instead of calling
+ * String.replaceAll for every word on every line. When all word keys are plain words, a single Aho-Corasick scan
+ * finds the words that occur in a line, so lines without them are not touched. Replacements are still applied
+ * one after another in rule order, results are the same as applying them with String.replaceAll.
+ */
+class ReplaceRules {
+
+    // RP values use this for line breaks.
+    private static final String NEW_LINE_MARK = "%n";
+
+    private final Pattern[] wordKeys;
+    private final String[] wordValues;
+    // null if a key is not a plain word.
+    private final AhoCorasick wordFinder;
+    // index of the distinct literal of each key in wordFinder.
+    private final int[] wordLiterals;
+
+    private final Pattern[] patterns;
+    private final String[] patternValues;
+
+    ReplaceRules(Map<String, String> replaceWords, Map<Pattern, String> replacePatterns) {
+        int wordCount = replaceWords.size();
+        wordKeys = new Pattern[wordCount];
+        wordValues = new String[wordCount];
+        wordLiterals = new int[wordCount];
+        Map<String, Integer> literalIndexes = new HashMap<>();
+        List<String> literals = new ArrayList<>();
+        boolean allLiteral = true;
+        int i = 0;
+        for (Map.Entry<String, String> entry : replaceWords.entrySet()) {
+            wordKeys[i] = Pattern.compile(entry.getKey());
+            wordValues[i] = entry.getValue();
+            String literal = MultiPatternMatcher.toLiteral(entry.getKey());
+            if (literal == null || literal.isEmpty()) {
+                allLiteral = false;
+            } else {
+                Integer index = literalIndexes.get(literal);
+                if (index == null) {
+                    index = literals.size();
+                    literalIndexes.put(literal, index);
+                    literals.add(literal);
+                }
+                wordLiterals[i] = index;
+            }
+            i++;
+        }
+        wordFinder = allLiteral && wordCount > 0 ? new AhoCorasick(literals) : null;
+
+        patterns = new Pattern[replacePatterns.size()];
+        patternValues = new String[replacePatterns.size()];
+        i = 0;
+        for (Map.Entry<Pattern, String> entry : replacePatterns.entrySet()) {
+            patterns[i] = entry.getKey();
+            patternValues[i] = entry.getValue();
+            i++;
+        }
+        if (RuleProfiler.ENABLED) {
+            RuleProfiler.register("RW", Arrays.asList(wordKeys));
+            RuleProfiler.register("RP", Arrays.asList(patterns));
+        }
+    }
+
+    private static String replaceAll(String kind, Pattern pattern, String input, String replacement) {
+        if (RuleProfiler.ENABLED) {
+            return RuleProfiler.replaceAll(kind, pattern, input, replacement);
+        }
+        return pattern.matcher(input).replaceAll(replacement);
+    }
+
+    boolean isEmpty() {
+        return wordKeys.length == 0 && patterns.length == 0;
+    }
+
+    /**
+     * Replaces words in the input. If trim is true, text is trimmed after each word.
+     */
+    String replaceWords(String input, boolean trim) {
+        // when profiling, every word is evaluated.
+        if (wordFinder == null || RuleProfiler.ENABLED) {
+            String result = input;
+            for (int i = 0; i < wordKeys.length; i++) {
+                result = replaceAll("RW", wordKeys[i], result, wordValues[i]);
+                if (trim) {
+                    result = result.trim();
+                }
+            }
+            return result;
+        }
+        String result = input;
+        int[] found = wordFinder.firstOccurrences(result);
+        for (int i = 0; i < wordKeys.length; i++) {
+            String next = result;
+            // a key that does not occur cannot change the text.
+            if (found[wordLiterals[i]] >= 0) {
+                next = wordKeys[i].matcher(next).replaceAll(wordValues[i]);
+            }
+            if (trim) {
+                next = next.trim();
+            }
+            // a replacement or trim may add or remove occurrences of the remaining keys.
+            if (!next.equals(result)) {
+                result = next;
+                found = wordFinder.firstOccurrences(result);
+            }
+        }
+        return result;
+    }
+
+    // same as line.replaceAll("\\s|\u00A0", " ")
+    private static String replaceSpaces(String line) {
+        char[] chars = null;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == '\u00A0') {
+                if (chars == null) {
+                    chars = line.toCharArray();
+                }
+                chars[i] = ' ';
+            }
+        }
+        return chars == null ? line : new String(chars);
+    }
+
+    /**
+     * Applies all rules to a line. RP values may split the line into several lines.
+     */
+    List<String> apply(String line) {
+        String content = replaceSpaces(line);
+        content = replaceWords(content, true);
+        for (int i = 0; i < patterns.length; i++) {
+            content = replaceAll("RP", patterns[i], content, patternValues[i]);
+            // TODO: a hack.
+            if (content.contains(NEW_LINE_MARK)) {
+                content = content.replace(NEW_LINE_MARK, "\n");
+            }
+        }
+        if (content.contains("\n")) {
+            return Splitter.on("\n").omitEmptyStrings().trimResults().splitToList(content);
+        }
+        return Collections.singletonList(content);
+    }
+}
@@ -0,0 +1,145 @@
+package suskun.extractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluation count, match count and total time of each content rule. Enabled with -Dsuskun.profileRules=true.
+ * When enabled, rules are evaluated one by one instead of with merged matchers, so that the cost of each rule is
+ * known. Results are added to the Metrics report, sorted by total time. Rules that are never evaluated or never
+ * match are candidates for removal.
+ * <p>
+ * Rules are kept by kind and pattern text, so a rule is reported once even if it is compiled again, for example
+ * for each source or when RuleRegistry reloads the rules file. After a reload, rules that are not in the new file
+ * are removed, see {@link #startGeneration()}.
+ * <p>
+ * When disabled, callers skip profiling code with a check of the constant ENABLED, so there is no overhead.
+ * <pre>
+ * if (RuleProfiler.ENABLED) {
+ *     matches = RuleProfiler.find("L", pattern, line);
+ * } else ...
+ * </pre>
+ */
+class RuleProfiler {
+
+    static final boolean ENABLED = Boolean.getBoolean("suskun.profileRules");
+
+    // kind, flags and text of a rule -> stat. Pattern does not override equals, so it is not used as key.
+    private static final Map<String, RuleStat> stats = new ConcurrentHashMap<>();
+    // incremented when rules are loaded again.
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    static class RuleStat {
+        final String kind;
+        final Pattern pattern;
+        final LongAdder count = new LongAdder();
+        final LongAdder matches = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        // generation the rule is last registered in, or created in if it is not registered.
+        volatile int generation;
+
+        RuleStat(String kind, Pattern pattern, int generation) {
+            this.kind = kind;
+            this.pattern = pattern;
+            this.generation = generation;
+        }
+
+        void add(boolean matched, long elapsed) {
+            count.increment();
+            if (matched) {
+                matches.increment();
+            }
+            nanos.add(elapsed);
+        }
+    }
+
+    private static RuleStat stat(String kind, Pattern pattern) {
+        String key = kind + '\t' + pattern.flags() + '\t' + pattern.pattern();
+        RuleStat stat = stats.get(key);
+        if (stat == null) {
+            stat = stats.computeIfAbsent(key, k -> new RuleStat(kind, pattern, generation.get()));
+        }
+        return stat;
+    }
+
+    /**
+     * Adds rules so that they are reported even if they are never evaluated.
+     */
+    static void register(String kind, Collection<Pattern> patterns) {
+        int current = generation.get();
+        for (Pattern pattern : patterns) {
+            stat(kind, pattern).generation = current;
+        }
+    }
+
+    /**
+     * Starts a new generation before rules are loaded again. Returns it, so that rules that are not registered in
+     * it can be removed with removeOlderThan(..) once the new rules are in use.
+     */
+    static int startGeneration() {
+        return generation.incrementAndGet();
+    }
+
+    /**
+     * Removes rules that are not registered since the generation started.
+     */
+    static void removeOlderThan(int start) {
+        stats.values().removeIf(stat -> stat.generation < start);
+    }
+
+    /**
+     * Same as pattern.matcher(input).find(), and records it.
+     */
+    static boolean find(String kind, Pattern pattern, CharSequence input) {
+        long start = System.nanoTime();
+        boolean found = pattern.matcher(input).find();
+        stat(kind, pattern).add(found, System.nanoTime() - start);
+        return found;
+    }
+
+    /**
+     * Returns true if any of the patterns is found in input. All patterns are evaluated and recorded, result is
+     * the same as a MultiPatternMatcher for these patterns.
+     */
+    static boolean findAny(String kind, Collection<Pattern> patterns, CharSequence input) {
+        boolean found = false;
+        for (Pattern pattern : patterns) {
+            found |= find(kind, pattern, input);
+        }
+        return found;
+    }
+
+    /**
+     * Same as pattern.matcher(input).replaceAll(replacement), and records it. A match means input is changed.
+     */
+    static String replaceAll(String kind, Pattern pattern, String input, String replacement) {
+        long start = System.nanoTime();
+        String result = pattern.matcher(input).replaceAll(replacement);
+        stat(kind, pattern).add(!result.equals(input), System.nanoTime() - start);
+        return result;
+    }
+
+    // registered rules are kept.
+    static void reset() {
+        for (RuleStat stat : stats.values()) {
+            stat.count.reset();
+            stat.matches.reset();
+            stat.nanos.reset();
+        }
+    }
+
+    /**
+     * Returns rules sorted by total time, descending.
+     */
+    static List<RuleStat> sortedByCost() {
+        List<RuleStat> result = new ArrayList<>(stats.values());
+        result.sort((a, b) -> Long.compare(b.nanos.sum(), a.nanos.sum()));
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package suskun.extractor;
+
+import zemberek.core.logging.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content rules loaded from a rules file once per process and shared by all threads. Loaded rules are compiled
+ * and immutable, global rules are layered once into each source. When the file is modified, it is loaded again
+ * and new rules replace the old ones atomically, so a long running process picks up edits without restarting.
+ * Callers that already hold a ContentPatterns instance keep using the rules they got. If the modified file
+ * cannot be loaded, old rules are kept.
+ * <pre>
+ * ContentPatterns patterns = RuleRegistry.get().patterns("www.aksam.com.tr");
+ * </pre>
+ */
+public class RuleRegistry {
+
+    static final Path DEFAULT_PATH = Paths.get("content-rules.txt");
+
+    // file modification time is checked at most once in this period.
+    private static final long CHECK_INTERVAL_MILLIS = 2000;
+
+    private static final Map<Path, RuleRegistry> registries = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private volatile Rules rules;
+    private volatile long nextCheck;
+    // modification time of a file that could not be loaded, so that it is not tried again.
+    private long failedModified = -1;
+
+    private static class Rules {
+        final Map<String, ContentPatterns> patterns;
+        final long lastModified;
+
+        Rules(Map<String, ContentPatterns> patterns, long lastModified) {
+            this.patterns = patterns;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private RuleRegistry(Path path) throws IOException {
+        this.path = path;
+        this.rules = load(path);
+        this.nextCheck = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Returns the registry of content-rules.txt in working directory.
+     */
+    public static RuleRegistry get() throws IOException {
+        return get(DEFAULT_PATH);
+    }
+
+    public static RuleRegistry get(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        try {
+            return registries.computeIfAbsent(key, p -> {
+                try {
+                    return new RuleRegistry(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Rules load(Path path) throws IOException {
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Map<String, ContentPatterns> patterns = ContentPatterns.fromFile(path);
+        // same instance is stored with and without "www." prefix.
+        Set<ContentPatterns> frozen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ContentPatterns p : patterns.values()) {
+            if (frozen.add(p)) {
+                p.freeze();
+            }
+        }
+        Log.info("%d content rule sources are loaded from %s", frozen.size(), path);
+        return new Rules(Collections.unmodifiableMap(patterns), lastModified);
+    }
+
+    /**
+     * Loads the rules file again if it is modified after last load. Returns true if rules are reloaded.
+     */
+    public synchronized boolean reloadIfModified() {
+        nextCheck = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+        try {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (lastModified == rules.lastModified || lastModified == failedModified) {
+                return false;
+            }
+            try {
+                int generation = RuleProfiler.ENABLED ? RuleProfiler.startGeneration() : 0;
+                rules = load(path);
+                if (RuleProfiler.ENABLED) {
+                    // rules of the old file are not reported any more.
+                    RuleProfiler.removeOlderThan(generation);
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                // for example a bad regular expression while the file is being edited.
+                failedModified = lastModified;
+                Log.warn("Content rules cannot be reloaded from %s, old rules are kept. Reason: %s",
+                        path, e.toString());
+                return false;
+            }
+        } catch (IOException e) {
+            Log.warn("Cannot check modification time of %s. Reason: %s", path, e.toString());
+            return false;
+        }
+    }
+
+    private Rules current() {
+        if (System.currentTimeMillis() >= nextCheck) {
+            reloadIfModified();
+        }
+        return rules;
+    }
+
+    /**
+     * Returns the rules of a source, or null if there are no rules for it.
+     */
+    public ContentPatterns patterns(String source) {
+        return current().patterns.get(source);
+    }
+
+    /**
+     * Returns an unmodifiable map of all rules. Map does not change after a reload.
+     */
+    public Map<String, ContentPatterns> all() {
+        return current().patterns;
+    }
+}
@@ -15,11 +15,15 @@ import java.util.stream.Collectors;
 
 public class SplitSentences {
 
+    private static final Metrics.Timer SPLIT = Metrics.timer("split");
+
     public static void main(String[] args) throws IOException {
 
         Path sourceRoot = Paths.get("/media/aaa/Data/corpora/mt-corpora");
         Path outRoot = Paths.get("/media/aaa/Data/corpora/mt-sentences");
+        Metrics.reset();
         splitAll(sourceRoot, outRoot);
+        Metrics.saveReport(outRoot, "split-sentences");
 
     }
 
@@ -52,19 +56,25 @@ public class SplitSentences {
                 Log.info("%s Exists. skipping.", out);
                 continue;
             }
-            List<WebDocument> documents = WebCorpus.loadDocuments(file);
-            corpus.addDocuments(documents);
-
+            // documents are read one by one, only unique sentences are kept.
             LinkedHashSet<String> all = new LinkedHashSet<>();
-            for (WebDocument document : documents) {
-                for (String paragraph : document.lines) {
-                    List<String> sentences = extractor.fromParagraph(paragraph);
-                    sentences = sentences.stream().map(s->clean(s)).collect(Collectors.toList());
-                    all.addAll(sentences.stream().filter(s -> !s.contains("\"")).collect(Collectors.toList()));
+            try (WebDocumentReader reader = WebDocumentReader.open(file)) {
+                while (reader.hasNext()) {
+                    WebDocument document = reader.next();
+                    long start = System.nanoTime();
+                    for (String paragraph : document.lines) {
+                        List<String> sentences = extractor.fromParagraph(paragraph);
+                        sentences = sentences.stream().map(s->clean(s)).collect(Collectors.toList());
+                        all.addAll(sentences.stream().filter(s -> !s.contains("\"")).collect(Collectors.toList()));
+                    }
+                    SPLIT.record(name, System.nanoTime() - start);
+                    Metrics.DOCUMENTS.increment(name);
                 }
             }
 
+            long start = System.nanoTime();
             Files.write(out, all, StandardCharsets.UTF_8);
+            Metrics.WRITE.record(name, System.nanoTime() - start);
 
         }
     }
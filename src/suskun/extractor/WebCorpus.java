@@ -3,14 +3,13 @@ package suskun.extractor;
 import com.google.common.hash.Hashing;
 import zemberek.core.collections.LongUIntMap;
 import zemberek.core.logging.Log;
-import zemberek.core.text.TextConsumer;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class WebCorpus {
@@ -20,6 +19,8 @@ public class WebCorpus {
 
     private List<WebDocument> pages = new ArrayList<>();
     private Map<String, WebDocument> lookup = new HashMap<>();
+    // documents that are not loaded are read from the corpus file with this, if it is not null.
+    private CorpusIndex index;
 
     public WebCorpus(String source, String id, List<WebDocument> pages) {
         this.source = source;
@@ -90,8 +91,23 @@ public class WebCorpus {
         this.lookup.clear();
     }
 
+    /**
+     * Returns a corpus that reads documents from corpusFile only when they are asked with getDocument.
+     * Documents are not loaded, so pages are empty until documents are added. Index of the file is built if it
+     * does not exist or it is stale, see CorpusIndex.
+     */
+    public static WebCorpus indexed(String source, String id, Path corpusFile) throws IOException {
+        WebCorpus corpus = new WebCorpus(source, id);
+        corpus.index = CorpusIndex.open(corpusFile);
+        return corpus;
+    }
+
     public WebDocument getDocument(String id) {
-        return lookup.get(id);
+        WebDocument document = lookup.get(id);
+        if (document == null && index != null) {
+            document = index.getDocument(id);
+        }
+        return document;
     }
 
     public WebCorpus(String source, String id) {
@@ -129,21 +145,9 @@ public class WebCorpus {
 
 
     public static List<WebDocument> loadDocuments(Path corpusFile) throws IOException {
-        List<String> allLines = Files.readAllLines(corpusFile, StandardCharsets.UTF_8);
-
-        List<WebDocument> pages = new ArrayList<>(allLines.size() / 10);
-
-        TextConsumer textConsumer = new TextConsumer(allLines);
-        textConsumer.moveUntil(s -> s.startsWith("<doc id="));
-        while (!textConsumer.finished()) {
-            String meta = textConsumer.current();
-            textConsumer.advance();
-            List<String> pageData = textConsumer.moveUntil(s -> s.startsWith("</doc>"));
-            textConsumer.moveUntil(s -> s.startsWith("<doc"));
-            WebDocument e = WebDocument.fromText(meta, pageData);
-            if (e != null) {
-                pages.add(e);
-            }
+        List<WebDocument> pages = new ArrayList<>();
+        try (WebDocumentReader reader = WebDocumentReader.open(corpusFile)) {
+            reader.forEachRemaining(pages::add);
         }
         return pages;
     }
@@ -198,68 +202,108 @@ public class WebCorpus {
 
         try (PrintWriter p = new PrintWriter(outFile.toFile(), "utf-8")) {
             for (WebDocument page : pages) {
-                if (!onlyContent) {
-                    p.println(page.getDocumentHeader());
-                }
-                p.println(page.getContentAsString());
-                if (!onlyContent) {
-                    p.println("</doc>");
-                }
+                write(p, page, onlyContent);
             }
         }
     }
 
+    public static void write(PrintWriter p, WebDocument page, boolean onlyContent) {
+        if (!onlyContent) {
+            p.println(page.getDocumentHeader());
+        }
+        p.println(page.getContentAsString());
+        if (!onlyContent) {
+            p.println("</doc>");
+        }
+    }
+
+
+    // optional cache of normalized lines and their hashes, see LineCache.SIZE
+    private static final LineCache<String, HashedLine> NORMALIZED_LINES =
+            LineCache.SIZE == 0 ? null : new LineCache<>("corpus-lines", LineCache.SIZE);
+
+    private static class HashedLine {
+        final String line;
+        final long hash;
+
+        HashedLine(String line, long hash) {
+            this.line = line;
+            this.hash = hash;
+        }
+    }
+
+    // empty and single word lines are not used, they are not hashed.
+    private static HashedLine hashLine(String line) {
+        String l = line.trim().replaceAll("\\s+", " ");
+        long hash = l.contains(" ") ? Hashing.murmur3_128().hashUnencodedChars(l).asLong() : 0;
+        return new HashedLine(l, hash);
+    }
 
     public List<WebDocument> getReducedPages(ContentPatterns patterns, boolean removeDuplicatedLines) {
-        // remove duplicated lines.
-        List<WebDocument> uniqueLinePages = new ArrayList<>();
+        List<WebDocument> reducedPages = new ArrayList<>();
+        reducePages(pages.iterator(), patterns, removeDuplicatedLines, reducedPages::add);
+        if (reducedPages.size() == 0) {
+            Log.warn("No page with content left!");
+        } else {
+            Log.info("Total pages to save %d", reducedPages.size());
+        }
+        return reducedPages;
+    }
+
+    /**
+     * Streaming form of getReducedPages. Pages are reduced one by one and given to consumer, so pages of a corpus
+     * file read with WebDocumentReader do not need to be in memory. Only hashes of seen lines are kept.
+     */
+    public void reducePages(
+            Iterator<WebDocument> pages,
+            ContentPatterns patterns,
+            boolean removeDuplicatedLines,
+            Consumer<WebDocument> consumer) {
 
         Set<Long> lineHashes = new HashSet<>(100000);
         int all = 0;
         int unique = 0;
 
-        for (WebDocument page : this.pages) {
+        while (pages.hasNext()) {
+            WebDocument page = pages.next();
+            // remove duplicated lines.
             List<String> uniqueLines = new ArrayList<>();
             all += page.lines.size();
-            for (String l : page.lines) {
-                l = l.trim().replaceAll("\\s+", " ");
+            long start = System.nanoTime();
+            for (String line : page.lines) {
+                HashedLine hashed = NORMALIZED_LINES == null ?
+                        hashLine(line) :
+                        NORMALIZED_LINES.get(line, WebCorpus::hashLine);
+                String l = hashed.line;
                 if (l.length() == 0)
                     continue;
                 // eliminate single words.
                 if (!l.contains(" "))
                     continue;
-                long h = Hashing.murmur3_128().hashUnencodedChars(l).asLong();
+                long h = hashed.hash;
                 if (!lineHashes.contains(h) || !removeDuplicatedLines) {
                     lineHashes.add(h);
                     uniqueLines.add(l);
                 }
             }
+            Metrics.HASH.record(source, System.nanoTime() - start);
+            Metrics.LINES.add(source, page.lines.size());
 
             unique += uniqueLines.size();
-            uniqueLinePages.add(page.copy(uniqueLines));
-        }
-        Log.info("Before unique line = %d  After = %d", all, unique);
-
-        List<WebDocument> reducedPages;
+            WebDocument uniqueLinePage = page.copy(uniqueLines);
 
-        if (patterns != null) {
-            reducedPages = new ArrayList<>();
-            for (WebDocument p : uniqueLinePages) {
-                WebDocument r = patterns.reduce(p, removeDuplicatedLines);
-                if (r.lines.isEmpty())
-                    continue;
-                reducedPages.add(r);
+            if (patterns == null) {
+                consumer.accept(uniqueLinePage);
+                continue;
             }
-        } else {
-            reducedPages = new ArrayList<>(uniqueLinePages);
-        }
-        if (reducedPages.size() == 0) {
-            Log.warn("No page with content left!");
-        } else {
-            Log.info("Total pages to save %d", reducedPages.size());
+            start = System.nanoTime();
+            WebDocument r = patterns.reduce(uniqueLinePage, removeDuplicatedLines);
+            Metrics.REDUCE.record(source, System.nanoTime() - start);
+            Metrics.DOCUMENTS.increment(source);
+            if (r.lines.isEmpty())
+                continue;
+            consumer.accept(r);
         }
-        return reducedPages;
+        Log.info("Before unique line = %d  After = %d", all, unique);
     }
 }
-
-
@@ -100,6 +100,14 @@ public class WebDocument {
     static Pattern categoryPattern = Pattern.compile("(category=)(.+?)(\")");
     static Pattern titlePattern = Pattern.compile("(title=)(.+?)(\")");
 
+    /**
+     * Returns the id of the document with meta line, null if meta has no url.
+     */
+    static String idOf(String meta) {
+        String url = Regexps.firstMatch(urlPattern, meta, 2);
+        return url == null ? null : url.replaceAll("http://|https://", "");
+    }
+
     public static WebDocument fromText(String meta, List<String> pageData) {
 
         String url = Regexps.firstMatch(urlPattern, meta, 2);
@@ -0,0 +1,117 @@
+package suskun.extractor;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads documents of a corpus file one by one, only the current document is kept in memory. Documents are the
+ * same as WebCorpus.loadDocuments returns. Reader must be closed, read errors are thrown as UncheckedIOException.
+ * <pre>
+ * try (WebDocumentReader reader = WebDocumentReader.open(file)) {
+ *     while (reader.hasNext()) {
+ *         WebDocument document = reader.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class WebDocumentReader implements Iterator<WebDocument>, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    // meta line of the next document, null if there is no document left.
+    private String meta;
+    private WebDocument next;
+
+    WebDocumentReader(BufferedReader reader) throws IOException {
+        this.reader = reader;
+        meta = readUntil("<doc id=", null);
+    }
+
+    public static WebDocumentReader open(Path corpusFile) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                Files.newBufferedReader(corpusFile, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            return new WebDocumentReader(reader);
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns documents of the corpus file as a stream. Stream must be closed to close the file.
+     */
+    public static Stream<WebDocument> stream(Path corpusFile) throws IOException {
+        WebDocumentReader reader = open(corpusFile);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    // reads lines until a line starting with prefix and returns it. Skipped lines are added to skipped if it is
+    // not null. Returns null at the end of file.
+    private String readUntil(String prefix, List<String> skipped) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+            if (skipped != null) {
+                skipped.add(line);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && meta != null) {
+                List<String> pageData = new ArrayList<>();
+                String end = readUntil("</doc>", pageData);
+                String current = meta;
+                meta = end == null ? null : readUntil("<doc", null);
+                next = WebDocument.fromText(current, pageData);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next != null;
+    }
+
+    @Override
+    public WebDocument next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        WebDocument document = next;
+        next = null;
+        return document;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}